@@ -27,6 +27,8 @@ import de.tu_darmstadt.cbs.emailsmpc.Study;
 import de.tu_darmstadt.cbs.emailsmpc.Study.StudyState;
 import org.bihealth.mi.easybus.Bus;
 import org.bihealth.mi.easybus.BusException;
+import org.bihealth.mi.easybus.BusMessage;
+import org.bihealth.mi.easybus.BusPool;
 import org.bihealth.mi.easybus.ConnectionSettings;
 import org.bihealth.mi.easybus.MessageFilter;
 import org.bihealth.mi.easybus.MessageListener;
@@ -60,6 +62,16 @@ import java.util.concurrent.TimeUnit;
  */
 public class UserProcess implements MessageListener {
 
+    /**
+     * Interval in milliseconds with which interim buses check for new messages
+     */
+    private static final int INTERIM_BUS_CHECK_INTERVAL = 1000;
+    /**
+     * Suffix of the keys of interim buses in the shared pool, so that they are not shared with
+     * the buses of studies, which use the check interval of the settings
+     */
+    private static final String INTERIM_BUS_KEY_SUFFIX = ":interim";
+
     private ExecutorService executorService;
 
     /** Logger */
@@ -129,11 +141,7 @@ public class UserProcess implements MessageListener {
         this.stop = true;
 
         // Stop bus
-        try {
-            this.model.getBus().stop();
-        } catch (BusException e1) {
-            // Ignore
-        }
+        this.model.stopBus();
 
         // Save latest state
         save();
@@ -190,6 +198,29 @@ public class UserProcess implements MessageListener {
         }
     }
 
+    @Override
+    public void receive(byte[] message) {
+
+        // Check not null or empty
+        if (model == null || message == null || message.length == 0) {
+            return;
+        }
+
+        try {
+            // Check and set message
+            Message msg = Message.deserializeMessage(message);
+            if (model.isMessageShareResultValid(msg)) {
+                model.setShareFromMessage(msg);
+
+                // Save
+                save();
+            }
+        } catch (IllegalStateException | IllegalArgumentException | NoSuchAlgorithmException |
+                 ClassNotFoundException | IOException e) {
+            Log.e("Unable to digest message", e.toString());
+        }
+    }
+
     @Override
     public void receiveError(Exception e) {
         Log.e("Error receiveing messages", e.toString());
@@ -237,14 +268,18 @@ public class UserProcess implements MessageListener {
      * @throws InterruptedException
      */
     private void receiveMessages(String roundIdentifier) throws IllegalArgumentException, BusException, InterruptedException {
-        getModel().getBus(getModel().getConnectionSettings().getCheckInterval(), false).receive(new Scope(getModel().getName() + roundIdentifier),
-                new Participant(getModel().getParticipantFromId(getModel().getOwnId()).name,
-                        getModel().getParticipantFromId(getModel().getOwnId()).emailAddress),
-                this);
+        Bus bus = getModel().getBus(getModel().getConnectionSettings().getCheckInterval(), false);
+        Scope scope = new Scope(getModel().getName() + roundIdentifier);
+        Participant participant = new Participant(getModel().getParticipantFromId(getModel().getOwnId()).name,
+                getModel().getParticipantFromId(getModel().getOwnId()).emailAddress);
+        bus.receive(scope, participant, this);
 
         // Wait for all shares
         while (!areSharesComplete()) {
 
+            // Tell the bus how many messages are outstanding
+            bus.setExpectedMessages(scope, getModel().getNumberOfMessagesMissing());
+
             // Check for error while receiving and throw exception
             if (this.stop) {
                 throw new InterruptedException("Process stopped");
@@ -262,6 +297,9 @@ public class UserProcess implements MessageListener {
                 Log.e("Sleep of bus interrupted", e.toString());
             }
         }
+
+        // Unsubscribe, as the bus may be shared with other studies
+        bus.unsubscribe(scope, participant, this);
     }
 
     /**
@@ -273,47 +311,59 @@ public class UserProcess implements MessageListener {
     private void sendMessages(String roundIdentifier) throws InterruptedException {
 
         // Prepare
-        FutureTask<Void> future = null;
+        List<Integer> indices = new ArrayList<>();
+        List<BusMessage> messages = new ArrayList<>();
 
         // Loop over participants
         for (int index = 0; index < getModel().getNumParticipants(); index++) {
 
-
-            // Only proceed if not own user
-            if (index != getModel().getOwnId()) {
-
-                // Check for error while receiving and throw exception
-                if (this.stop) {
-                    throw new InterruptedException("Process stopped");
+            // Only proceed if not own user and if message has not been sent already
+            if (index != getModel().getOwnId() && getModel().getUnsentMessageFor(index) != null) {
+                try {
+                    indices.add(index);
+                    messages.add(new BusMessage(new Participant(getModel().getParticipants()[index].name,
+                                    getModel().getParticipants()[index].emailAddress),
+                            new Scope(getModel().getName() + (getModel().getState() == StudyState.INITIAL_SENDING ? Resources.ROUND_0 : roundIdentifier)),
+                            Message.serializeMessageBinary(getModel().getUnsentMessageFor(index))));
+                } catch (Exception e) {
+                    Log.e("Unable to send message", e.toString());
+                    throw new IllegalStateException("Unable to send message!", e);
                 }
+            }
+        }
 
-                // Check if message has been sent already
-                if (getModel().getUnsentMessageFor(index) == null) {
-                    continue;
-                }
+        // Check
+        if (messages.isEmpty()) {
+            return;
+        }
 
-                try {
-                    // Retrieve bus and send message
+        // Check for error while receiving and throw exception
+        if (this.stop) {
+            throw new InterruptedException("Process stopped");
+        }
 
-                    future = getModel().getBus(getModel().getConnectionSettings().getCheckInterval(), false).send(Message.serializeMessage(getModel().getUnsentMessageFor(index)),
-                            new Scope(getModel().getName() + (getModel().getState() == StudyState.INITIAL_SENDING ? Resources.ROUND_0 : roundIdentifier)),
-                            new Participant(getModel().getParticipants()[index].name,
-                                    getModel().getParticipants()[index].emailAddress));
+        // Retrieve bus and send messages in one batch
+        List<FutureTask<Void>> futures = new ArrayList<>();
+        try {
+            futures = getModel().getBus(getModel().getConnectionSettings().getCheckInterval(), false).sendAll(messages);
 
-                    // Wait for result with a timeout time
-                    future.get(getModel().getConnectionSettings().getSendTimeout(), TimeUnit.MILLISECONDS);
+            for (int position = 0; position < futures.size(); position++) {
 
-                    // Mark message as sent
-                    model.markMessageSent(index);
+                // Wait for result with a timeout time
+                futures.get(position).get(getModel().getConnectionSettings().getSendTimeout(), TimeUnit.MILLISECONDS);
 
-                    // Save
-                    save();
-                } catch (Exception e) {
-                    future.cancel(true);
-                    Log.e("Unable to send message", e.toString());
-                    throw new IllegalStateException("Unable to send message!", e);
-                }
+                // Mark message as sent
+                model.markMessageSent(indices.get(position));
+
+                // Save
+                save();
             }
+        } catch (Exception e) {
+            for (FutureTask<Void> future : futures) {
+                future.cancel(true);
+            }
+            Log.e("Unable to send message", e.toString());
+            throw new IllegalStateException("Unable to send message!", e);
         }
     }
 
@@ -477,43 +527,53 @@ public class UserProcess implements MessageListener {
     }
 
     /**
-     * Get an interim bus with 1000 milliseconds check interval
+     * Get an interim bus with 1000 milliseconds check interval. The bus is taken from the
+     * shared pool, separately from the buses of studies, and must be handed back with
+     * {@link #releaseInterimBus(Bus)}.
      *
      * @return
      */
     public Bus getInterimBus() {
-        // Is e-mails bus?
-        if (this.getConnectionSettings() instanceof ConnectionSettingsIMAP) {
 
-            try {
-                return new BusEmail(new ConnectionIMAP((ConnectionSettingsIMAP) this.getConnectionSettings(),
-                        false), 1000);
-            } catch (BusException e) {
-                Log.e("Unable to get interim bus!", e.toString());
-                throw new IllegalStateException("Unable to get interim bus!");
-            }
+        // Set test values if this.self is null
+        String name = (this.self != null && this.self.getName() != null) ? this.self.getName() : "Test Name";
+        String email = (this.self != null && this.self.getEmailAddress() != null) ? this.self.getEmailAddress() : "test@example.com";
+        ConnectionSettings settings = this.getConnectionSettings();
+
+        // Check
+        if (!(settings instanceof ConnectionSettingsIMAP) && !(settings instanceof ConnectionSettingsEasyBackend)) {
+            throw new IllegalStateException("Unable to determine bus type");
         }
 
-        // Is EasyBackend bus?
+        // Acquire
         try {
-            // Set test values if this.self is null
-            String name = (this.self != null && this.self.getName() != null) ? this.self.getName() : "Test Name";
-            String email = (this.self != null && this.self.getEmailAddress() != null) ? this.self.getEmailAddress() : "test@example.com";
+            return BusPool.getDefault().acquire(BusPool.getKey(settings, name, false) + INTERIM_BUS_KEY_SUFFIX, () -> {
+
+                // Is e-mails bus?
+                if (settings instanceof ConnectionSettingsIMAP) {
+                    return new BusEmail(new ConnectionIMAP((ConnectionSettingsIMAP) settings, false), INTERIM_BUS_CHECK_INTERVAL);
+                }
 
-            if (this.getConnectionSettings() instanceof ConnectionSettingsEasyBackend) {
+                // Is EasyBackend bus
                 return new BusEasyBackend(Resources.SIZE_THREADPOOL,
-                        getConnectionSettings().getCheckInterval(),
-                        ((ConnectionSettingsEasyBackend) getConnectionSettings()),
+                        INTERIM_BUS_CHECK_INTERVAL,
+                        (ConnectionSettingsEasyBackend) settings,
                         new Participant(name, email),
-                        getConnectionSettings().getMaxMessageSize());
-            }
+                        settings.getMaxMessageSize());
+            });
         } catch (BusException e) {
             Log.e("Unable to get interim bus!", e.toString());
             throw new IllegalStateException("Unable to get interim bus!");
         }
+    }
 
-        // Nothing found
-        throw new IllegalStateException("Unable to determine bus type");
+    /**
+     * Hands back an interim bus to the shared pool
+     *
+     * @param bus
+     */
+    public void releaseInterimBus(Bus bus) {
+        BusPool.getDefault().release(bus);
     }
 
     /**
@@ -525,7 +585,10 @@ public class UserProcess implements MessageListener {
      */
     protected void purgeMessages(MessageFilter filter) throws BusException, InterruptedException {
         Bus bus = getInterimBus();
-        bus.purge(filter);
-        bus.stop();
+        try {
+            bus.purge(filter);
+        } finally {
+            releaseInterimBus(bus);
+        }
     }
 }
\ No newline at end of file
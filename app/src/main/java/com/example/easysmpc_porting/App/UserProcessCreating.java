@@ -14,6 +14,7 @@
 package com.example.easysmpc_porting.App;
 
 import de.tu_darmstadt.cbs.emailsmpc.Bin;
+import de.tu_darmstadt.cbs.emailsmpc.BusWarmUp;
 import de.tu_darmstadt.cbs.emailsmpc.Participant;
 import org.bihealth.mi.easybus.BusException;
 import org.bihealth.mi.easybus.ConnectionSettings;
@@ -65,6 +66,9 @@ public class UserProcessCreating extends UserProcess {
             throw new IllegalArgumentException("Please provide at least three participants and one bin!");
         }
 
+        // Connect in the background while messages are purged and values are shared
+        BusWarmUp warmUp = connectionSettings != null ? new BusWarmUp(connectionSettings, participants[0].name) : null;
+
         // Delete pre-existing bus message
         try {
             LOGGER.info("Start deleting pre-existing messages");
@@ -85,6 +89,9 @@ public class UserProcessCreating extends UserProcess {
 
             // Init model with generated study name, participants and bins            
             getModel().toInitialSending(studyTitle, participants, createBinsFromMaps(binsNames, participants.length, data), connectionSettings);
+            if (warmUp != null) {
+                warmUp.handOver(getModel());
+            }
             LOGGER.info(String.format("Started process for project %s with %d participants and %d variables",
                     getModel().getName(),
                     getModel().getNumParticipants(),
@@ -94,6 +101,9 @@ public class UserProcessCreating extends UserProcess {
             save();
 
         } catch (IOException | IllegalStateException e) {
+            if (warmUp != null) {
+                warmUp.cancel();
+            }
             LOGGER.error("Unable to init study", e);
             throw new IllegalStateException("Unable to init study!", e);
         }
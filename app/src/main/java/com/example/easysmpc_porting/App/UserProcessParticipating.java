@@ -17,6 +17,7 @@ import android.content.Context;
 import android.util.Log;
 
 import de.tu_darmstadt.cbs.emailsmpc.Bin;
+import de.tu_darmstadt.cbs.emailsmpc.BusWarmUp;
 import de.tu_darmstadt.cbs.emailsmpc.Message;
 import de.tu_darmstadt.cbs.emailsmpc.MessageInitial;
 import org.bihealth.mi.easybus.Bus;
@@ -44,6 +45,10 @@ public class UserProcessParticipating extends UserProcess {
      * User's values to add
      */
     private final Map<String, String> data;
+    /**
+     * Own participant
+     */
+    private final Participant participant;
 
     /**
      * Creates a new instance
@@ -61,21 +66,24 @@ public class UserProcessParticipating extends UserProcess {
         super(connectionSettings);
         this.setSelfData(participant);
         this.data = data;
+        this.participant = participant;
         // Delete pre-existing bus messages
         // TODO Clarify purging!
 
         // Register for initial message
         Bus interimBus = getInterimBus();
+        Scope scope = new Scope(studyTitle + Resources.ROUND_0);
 
-        interimBus.receive(new Scope(studyTitle + Resources.ROUND_0), participant, new MessageListener() {
+        interimBus.receive(scope, participant, new MessageListener() {
             boolean received = false;
 
             @Override
             public void receive(String message) {
-                // Stop interim bus
-                interimBus.stop();
-
                 if (!received) {
+                    // Release interim bus, which may be shared with other studies
+                    interimBus.unsubscribe(scope, participant, this);
+                    releaseInterimBus(interimBus);
+
                     // Spawns the following steps in an own thread
                     Thread thread = new Thread(new Runnable() {
                         @Override
@@ -103,6 +111,9 @@ public class UserProcessParticipating extends UserProcess {
      */
     private void performInitialization(String message) {
 
+        // Connect in the background while the study is set up and values are shared
+        BusWarmUp warmUp = getConnectionSettings() != null ? new BusWarmUp(getConnectionSettings(), participant.getName()) : null;
+
         try {
             // Get data
             String data = Message.deserializeMessage(message).data;
@@ -120,11 +131,19 @@ public class UserProcessParticipating extends UserProcess {
             // Save state         
             save();
 
+            // Use connection opened in the background
+            if (warmUp != null) {
+                warmUp.handOver(getModel());
+            }
+
             // Starts the common steps 
             performCommonSteps();
 
         } catch (ClassNotFoundException | IllegalArgumentException | IllegalStateException |
                  IOException e) {
+            if (warmUp != null) {
+                warmUp.cancel();
+            }
             Log.e("Unable to execute particpating users steps", e.toString());
             throw new IllegalStateException("Unable to execute particpating users steps", e);
         }
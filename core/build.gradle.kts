@@ -0,0 +1,32 @@
+plugins {
+    `java-library`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+
+    api(libs.log4j.api)
+    api(libs.jakarta.mail.api)
+    implementation(libs.angus.mail)
+    api(libs.commons.math3)
+    implementation(libs.proxy.vole)
+    implementation(libs.jackson.databind)
+    implementation(libs.jakarta.ws.rs.api)
+    implementation(libs.jakarta.activation.api)
+    implementation(libs.jersey.client.v303)
+    implementation(libs.jersey.hk2)
+    implementation(libs.commons.validator)
+    implementation(libs.httpclient)
+    implementation(libs.commons.cli)
+    implementation(libs.commons.csv)
+    implementation(libs.hppc)
+    implementation(libs.poi)
+    implementation(libs.poi.ooxml)
+    runtimeOnly(libs.log4j.core)
+    testImplementation(libs.junit)
+
+}
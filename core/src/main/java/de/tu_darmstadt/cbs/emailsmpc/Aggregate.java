@@ -0,0 +1,306 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tu_darmstadt.cbs.emailsmpc;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Declares which statistic of a variable is computed by a bin. A single study can compute
+ * several statistics of the same variable (e.g. sum, count and sum of squares or the buckets
+ * of a histogram) in one run. Each participant derives the inputs of all bins from its local
+ * observations and derived statistics, such as mean and variance, are computed from the results.
+ *
+ * @author Felix Wirth
+ */
+public class Aggregate implements Serializable {
+
+    /**
+     * Statistics supported
+     *
+     * @author Felix Wirth
+     */
+    public enum Type {
+        SUM,
+        COUNT,
+        SUM_OF_SQUARES,
+        HISTOGRAM_BUCKET
+    }
+
+    /**
+     * SVUID
+     */
+    private static final long serialVersionUID = 4352291405736612851L;
+    /**
+     * Math context for derived statistics
+     */
+    private static final MathContext MATH_CONTEXT = MathContext.DECIMAL64;
+    /**
+     * The variable
+     */
+    public final String variable;
+    /**
+     * The type
+     */
+    public final Type type;
+    /**
+     * Inclusive lower bound of a histogram bucket or null if unbounded
+     */
+    public final BigDecimal lower;
+    /**
+     * Exclusive upper bound of a histogram bucket or null if unbounded
+     */
+    public final BigDecimal upper;
+
+    /**
+     * Creates a new instance
+     *
+     * @param variable
+     * @param type
+     * @param lower
+     * @param upper
+     */
+    private Aggregate(String variable, Type type, BigDecimal lower, BigDecimal upper) {
+
+        // Check
+        if (variable == null || type == null) {
+            throw new NullPointerException("Variable and type must not be null");
+        }
+
+        // Store
+        this.variable = variable;
+        this.type = type;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * Creates bins computing the given statistics of a variable
+     *
+     * @param variable
+     * @param types statistics other than histogram buckets
+     * @return
+     */
+    public static Bin[] createBins(String variable, Type... types) {
+        Bin[] result = new Bin[types.length];
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Type.HISTOGRAM_BUCKET) {
+                throw new IllegalArgumentException("Use createHistogramBins to create histogram buckets");
+            }
+            Aggregate aggregate = new Aggregate(variable, types[i], null, null);
+            result[i] = new Bin(aggregate.getBinName(), aggregate);
+        }
+        return result;
+    }
+
+    /**
+     * Creates bins computing a histogram of a variable. Buckets are delimited by the given
+     * ascending boundaries, values below the first and from the last boundary on are counted
+     * in two open buckets.
+     *
+     * @param variable
+     * @param boundaries
+     * @return
+     */
+    public static Bin[] createHistogramBins(String variable, BigDecimal... boundaries) {
+
+        // Check
+        for (int i = 1; i < boundaries.length; i++) {
+            if (boundaries[i - 1].compareTo(boundaries[i]) >= 0) {
+                throw new IllegalArgumentException("Boundaries must be strictly ascending");
+            }
+        }
+
+        // Create buckets
+        Bin[] result = new Bin[boundaries.length + 1];
+        for (int i = 0; i <= boundaries.length; i++) {
+            Aggregate aggregate = new Aggregate(variable, Type.HISTOGRAM_BUCKET,
+                    i == 0 ? null : boundaries[i - 1],
+                    i == boundaries.length ? null : boundaries[i]);
+            result[i] = new Bin(aggregate.getBinName(), aggregate);
+        }
+        return result;
+    }
+
+    /**
+     * Derives the input values of all bins from local observations. Bins declaring an aggregate
+     * are computed from the observations of their variable, other bins receive the sum of the
+     * observations registered under their own name.
+     *
+     * @param bins
+     * @param observations observations by variable
+     * @return
+     */
+    public static BigDecimal[] deriveValues(Bin[] bins, Map<String, List<BigDecimal>> observations) {
+        BigDecimal[] result = new BigDecimal[bins.length];
+        for (int i = 0; i < bins.length; i++) {
+            Aggregate aggregate = bins[i].getAggregate();
+            if (aggregate == null) {
+                result[i] = sum(observations.get(bins[i].name));
+            } else {
+                result[i] = aggregate.derive(observations.get(aggregate.variable));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Derives statistics from the results of bins, i.e. the mean of variables for which sum and
+     * count are available and the sample variance of variables for which the sum of squares is
+     * available in addition.
+     *
+     * @param bins
+     * @param results results of the bins in the same order
+     * @return
+     */
+    static List<BinResult> deriveResults(Bin[] bins, BinResult[] results) {
+
+        // Collect results by variable
+        Map<String, Map<Type, BigDecimal>> values = new LinkedHashMap<>();
+        for (int i = 0; i < bins.length; i++) {
+            Aggregate aggregate = bins[i].getAggregate();
+            if (aggregate != null && aggregate.type != Type.HISTOGRAM_BUCKET) {
+                Map<Type, BigDecimal> variable = values.get(aggregate.variable);
+                if (variable == null) {
+                    variable = new LinkedHashMap<>();
+                    values.put(aggregate.variable, variable);
+                }
+                variable.put(aggregate.type, results[i].value);
+            }
+        }
+
+        // Derive
+        List<BinResult> result = new ArrayList<>();
+        for (Map.Entry<String, Map<Type, BigDecimal>> entry : values.entrySet()) {
+            BigDecimal sum = entry.getValue().get(Type.SUM);
+            BigDecimal count = entry.getValue().get(Type.COUNT);
+            BigDecimal sumOfSquares = entry.getValue().get(Type.SUM_OF_SQUARES);
+            if (sum == null || count == null || count.signum() <= 0) {
+                continue;
+            }
+            result.add(new BinResult(entry.getKey() + "[mean]", sum.divide(count, MATH_CONTEXT)));
+            if (sumOfSquares != null && count.compareTo(BigDecimal.ONE) > 0) {
+                BigDecimal deviation = sumOfSquares.subtract(sum.multiply(sum).divide(count, MATH_CONTEXT));
+                result.add(new BinResult(entry.getKey() + "[variance]",
+                        deviation.divide(count.subtract(BigDecimal.ONE), MATH_CONTEXT)));
+            }
+        }
+
+        // Return
+        return result;
+    }
+
+    /**
+     * Sums up observations
+     *
+     * @param observations
+     * @return
+     */
+    private static BigDecimal sum(List<BigDecimal> observations) {
+        BigDecimal result = BigDecimal.ZERO;
+        if (observations != null) {
+            for (BigDecimal observation : observations) {
+                result = result.add(observation);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Derives the input value of this aggregate from local observations
+     *
+     * @param observations observations of the variable, may be null
+     * @return
+     */
+    public BigDecimal derive(List<BigDecimal> observations) {
+
+        // No observations
+        if (observations == null) {
+            return BigDecimal.ZERO;
+        }
+
+        // Derive
+        switch (type) {
+            case SUM:
+                return sum(observations);
+            case COUNT:
+                return BigDecimal.valueOf(observations.size());
+            case SUM_OF_SQUARES:
+                BigDecimal squares = BigDecimal.ZERO;
+                for (BigDecimal observation : observations) {
+                    squares = squares.add(observation.multiply(observation));
+                }
+                return squares;
+            case HISTOGRAM_BUCKET:
+                long count = 0;
+                for (BigDecimal observation : observations) {
+                    if ((lower == null || observation.compareTo(lower) >= 0) &&
+                            (upper == null || observation.compareTo(upper) < 0)) {
+                        count++;
+                    }
+                }
+                return BigDecimal.valueOf(count);
+            default:
+                throw new IllegalStateException("Unknown aggregate type " + type);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+        if (!(o instanceof Aggregate))
+            return false;
+        Aggregate other = (Aggregate) o;
+        return variable.equals(other.variable) && type == other.type &&
+                Objects.equals(lower, other.lower) && Objects.equals(upper, other.upper);
+    }
+
+    /**
+     * Returns the name of the bin computing this aggregate
+     *
+     * @return
+     */
+    public String getBinName() {
+        switch (type) {
+            case SUM:
+                return variable + "[sum]";
+            case COUNT:
+                return variable + "[count]";
+            case SUM_OF_SQUARES:
+                return variable + "[sum of squares]";
+            case HISTOGRAM_BUCKET:
+                return variable + "[" + (lower == null ? "-inf" : lower.toPlainString()) + ";" +
+                        (upper == null ? "inf" : upper.toPlainString()) + ")";
+            default:
+                throw new IllegalStateException("Unknown aggregate type " + type);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(variable, type, lower, upper);
+    }
+
+    @Override
+    public String toString() {
+        return getBinName();
+    }
+}
@@ -47,6 +47,11 @@ public class Bin implements Serializable, Cloneable {
      */
     private ArithmeticShare[] outShares;
 
+    /**
+     * The aggregate computed or null for plain bins.
+     */
+    private Aggregate aggregate;
+
     /**
      * Instantiates a new bin.
      *
@@ -58,6 +63,17 @@ public class Bin implements Serializable, Cloneable {
         outShares = null;
     }
 
+    /**
+     * Instantiates a new bin computing an aggregate.
+     *
+     * @param name      the name
+     * @param aggregate the aggregate
+     */
+    public Bin(String name, Aggregate aggregate) {
+        this(name);
+        this.aggregate = aggregate;
+    }
+
     /**
      * Instantiates a new bin.
      *
@@ -112,6 +128,7 @@ public class Bin implements Serializable, Cloneable {
     @Override
     public Object clone() {
         Bin newBin = new Bin(this.name, this.inShares.length);
+        newBin.aggregate = this.aggregate;
         for (int i = 0; i < this.inShares.length; i++) {
             if (this.inShares[i] != null)
                 newBin.inShares[i] = (ArithmeticShare) this.inShares[i].clone();
@@ -135,6 +152,7 @@ public class Bin implements Serializable, Cloneable {
             return false;
         Bin b = (Bin) o;
         boolean result = b.name.equals(name);
+        result = result && (aggregate == null ? b.aggregate == null : aggregate.equals(b.aggregate));
         result = result && (inShares.length == b.inShares.length);
         result = result && (outShares.length == b.outShares.length);
         for (int i = 0; i < inShares.length; i++) {
@@ -152,6 +170,24 @@ public class Bin implements Serializable, Cloneable {
         return result;
     }
 
+    /**
+     * Gets the aggregate.
+     *
+     * @return the aggregate or null for plain bins
+     */
+    public Aggregate getAggregate() {
+        return aggregate;
+    }
+
+    /**
+     * Sets the aggregate.
+     *
+     * @param aggregate the aggregate
+     */
+    public void setAggregate(Aggregate aggregate) {
+        this.aggregate = aggregate;
+    }
+
     /**
      * Gets the filled in share indices.
      *
@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tu_darmstadt.cbs.emailsmpc;
+
+import org.bihealth.mi.easybus.Bus;
+import org.bihealth.mi.easybus.BusPool;
+import org.bihealth.mi.easybus.ConnectionSettings;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Acquires a bus from the shared pool and opens and authenticates its connections in the background,
+ * e.g. while data is imported and shares are generated. The pooled bus is handed to the study when it
+ * starts, so that proxy discovery, logins and TLS handshakes are not on the critical path.
+ *
+ * @author Felix Wirth
+ */
+public class BusWarmUp {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(BusWarmUp.class);
+    /**
+     * Task creating the bus
+     */
+    private final FutureTask<Bus> task;
+    /**
+     * The bus once acquired and not handed over or released
+     */
+    private Bus bus;
+    /**
+     * Whether warming up has been cancelled
+     */
+    private boolean cancelled;
+
+    /**
+     * Starts warming up the bus a study uses by default, i.e. with the check interval of the
+     * settings and without a shared mailbox
+     *
+     * @param connectionSettings
+     * @param ownName            name of the own participant
+     */
+    public BusWarmUp(ConnectionSettings connectionSettings, String ownName) {
+        this(connectionSettings, ownName, connectionSettings == null ? 0 : connectionSettings.getCheckInterval(), false);
+    }
+
+    /**
+     * Starts warming up a bus
+     *
+     * @param connectionSettings
+     * @param ownName            name of the own participant
+     * @param millis             milliseconds interval to check for new mails
+     * @param isSharedMailbox
+     */
+    public BusWarmUp(ConnectionSettings connectionSettings, String ownName, int millis, boolean isSharedMailbox) {
+
+        // Check
+        if (connectionSettings == null) {
+            throw new NullPointerException("Connection settings must not be null");
+        }
+
+        // Create and start
+        this.task = new FutureTask<>(new Callable<Bus>() {
+            @Override
+            public Bus call() throws Exception {
+
+                // Acquire
+                Bus bus = BusPool.getDefault().acquire(BusPool.getKey(connectionSettings, ownName, isSharedMailbox),
+                        () -> Study.createBus(connectionSettings, ownName, millis, isSharedMailbox, null));
+                if (bus == null) {
+                    return null;
+                }
+                synchronized (BusWarmUp.this) {
+                    if (cancelled) {
+                        BusPool.getDefault().release(bus);
+                        return null;
+                    }
+                    BusWarmUp.this.bus = bus;
+                }
+
+                // Connect
+                try {
+                    bus.warmUp();
+                } catch (Exception e) {
+                    release();
+                    throw e;
+                }
+                return bus;
+            }
+        });
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Cancels warming up and releases the bus if it has already been acquired
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+        }
+        task.cancel(true);
+        release();
+    }
+
+    /**
+     * Waits for warming up to finish and hands the pooled bus to the study, which releases it
+     * when it is done. If warming up failed, the study acquires a bus on demand as usual.
+     *
+     * @param study
+     */
+    public void handOver(Study study) {
+
+        // Wait
+        if (getBus() == null) {
+            cancel();
+            return;
+        }
+
+        // Take and hand over
+        Bus bus;
+        synchronized (this) {
+            bus = this.bus;
+            this.bus = null;
+        }
+        if (bus != null) {
+            study.setBus(bus);
+        }
+    }
+
+    /**
+     * Releases the bus if it has been acquired and not handed over
+     */
+    private void release() {
+        Bus bus;
+        synchronized (this) {
+            bus = this.bus;
+            this.bus = null;
+        }
+        if (bus != null) {
+            BusPool.getDefault().release(bus);
+        }
+    }
+
+    /**
+     * Waits for warming up to finish
+     *
+     * @return the bus or null if it could not be created
+     */
+    private Bus getBus() {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            LOGGER.warn("Unable to warm up connection, connecting on demand", e.getCause());
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        }
+    }
+}
@@ -16,6 +16,7 @@ package de.tu_darmstadt.cbs.emailsmpc;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -24,7 +25,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.Base64.Encoder;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+
+import org.bihealth.mi.easybus.PayloadCompression;
 
 /**
  * A message to be sent between instances
@@ -103,8 +105,20 @@ public class Message implements Serializable, Cloneable {
      * @throws ClassNotFoundException the class not found exception
      */
     public static Message deserializeMessage(String msg) throws IOException, ClassNotFoundException {
-        byte[] data = Base64.getDecoder().decode(msg);
-        ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+        return deserializeMessage(Base64.getDecoder().decode(msg));
+    }
+
+    /**
+     * Deserialize message from its binary form.
+     *
+     * @param data the data
+     * @return the message
+     * @throws IOException            Signals that an I/O exception has occurred.
+     * @throws ClassNotFoundException the class not found exception
+     */
+    public static Message deserializeMessage(byte[] data) throws IOException, ClassNotFoundException {
+        InputStream in = new ByteArrayInputStream(data);
+        ObjectInputStream ois = new ObjectInputStream(PayloadCompression.isGZIP(data) ? new GZIPInputStream(in) : in);
         Message message = (Message) ois.readObject();
         ois.close();
         return message;
@@ -145,11 +159,24 @@ public class Message implements Serializable, Cloneable {
      * @throws IOException Signals that an I/O exception has occurred.
      */
     public static String serializeMessage(Message msg) throws IOException {
+        return Base64.getEncoder().encodeToString(serializeMessageBinary(msg));
+    }
+
+    /**
+     * Serialize message into its binary form, which avoids Base64 encoding when
+     * the message is sent with a binary payload. The message is not compressed,
+     * as the bus compresses payloads where this is worthwhile.
+     *
+     * @param msg the msg
+     * @return the data
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public static byte[] serializeMessageBinary(Message msg) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(bos));
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
         oos.writeObject(msg);
         oos.close();
-        return Base64.getEncoder().encodeToString(bos.toByteArray());
+        return bos.toByteArray();
     }
 
     /**
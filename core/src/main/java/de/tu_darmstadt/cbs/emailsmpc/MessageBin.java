@@ -36,6 +36,10 @@ public class MessageBin implements Serializable {
      * The share.
      */
     public final ArithmeticShare share;
+    /**
+     * The aggregate.
+     */
+    public final Aggregate aggregate;
 
     /**
      * Instantiates a new message bin.
@@ -46,6 +50,7 @@ public class MessageBin implements Serializable {
     public MessageBin(Bin bin, int recipientId) {
         this.name = bin.name;
         this.share = bin.getOutShare(recipientId);
+        this.aggregate = bin.getAggregate();
     }
 
     /**
@@ -57,6 +62,7 @@ public class MessageBin implements Serializable {
     public MessageBin(String name, ArithmeticShare share) {
         this.name = name;
         this.share = share;
+        this.aggregate = null;
     }
 
     /**
@@ -69,6 +75,7 @@ public class MessageBin implements Serializable {
     public static Bin getBin(MessageBin mb, int numParticipants) {
         Bin bin = new Bin(mb.name, numParticipants);
         bin.setInShare(mb.share, 0);
+        bin.setAggregate(mb.aggregate);
         return bin;
     }
 
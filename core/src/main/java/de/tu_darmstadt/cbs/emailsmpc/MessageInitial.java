@@ -62,6 +62,10 @@ public class MessageInitial implements Serializable {
      * Exchange mode
      */
     private final ExchangeMode exchangeMode;
+    /**
+     * Hierarchical dimensions
+     */
+    private final String[] dimensions;
 
     /**
      * Instantiates a new initial message.
@@ -75,6 +79,7 @@ public class MessageInitial implements Serializable {
         this.participants = model.getParticipants();
         this.recipientId = recipientId;
         this.exchangeMode = model.getExchangeMode();
+        this.dimensions = model.getDimensions();
         this.bins = new MessageBin[model.getBins().length];
         for (int i = 0; i < model.getBins().length; i++) {
             bins[i] = new MessageBin(model.getBins()[i], recipientId);
@@ -115,6 +120,7 @@ public class MessageInitial implements Serializable {
         model.setNumParticipants(msg.participants.length);
         model.setOwnId(msg.recipientId);
         model.setExchangeMode(msg.exchangeMode);
+        model.setDimensions(msg.dimensions);
         model.setState(Study.StudyState.PARTICIPATING);
         model.setBins(new Bin[msg.bins.length]);
         for (int i = 0; i < msg.bins.length; i++) {
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tu_darmstadt.cbs.emailsmpc;
+
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+/**
+ * Computes roll-up totals of hierarchical dimensions from reconstructed leaf bins. Leaf bins are
+ * named by their coordinates joined by {@link Resources#AGGREGATION_DELIMITER}. For each level of
+ * the hierarchy the trailing dimensions are rolled up and replaced by {@link Resources#ROLL_UP_WILDCARD}.
+ * As totals are computed locally, only leaf bins need to be shared.
+ *
+ * @author Felix Wirth
+ */
+public class RollUp {
+
+    /**
+     * Pattern splitting bin names into coordinates
+     */
+    private static final Pattern DELIMITER = Pattern.compile(Pattern.quote(Resources.AGGREGATION_DELIMITER));
+
+    /**
+     * No instances
+     */
+    private RollUp() {
+        // Empty by design
+    }
+
+    /**
+     * Checks whether a name denotes a leaf of the given number of dimensions, i.e. has one
+     * coordinate per dimension and does not contain rolled up coordinates. Can be used to
+     * remove pre-aggregated marginals from the data of a site before creating bins.
+     *
+     * @param name
+     * @param dimensions
+     * @return
+     */
+    public static boolean isLeaf(String name, int dimensions) {
+        String[] coordinates = getCoordinates(name);
+        if (coordinates.length != dimensions) {
+            return false;
+        }
+        for (String coordinate : coordinates) {
+            if (coordinate.isEmpty() || coordinate.equals(Resources.ROLL_UP_WILDCARD)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the totals of all levels of the hierarchy, starting with the finest one and ending
+     * with the grand total. Only plain bins which are leaves are considered.
+     *
+     * @param bins
+     * @param results results of the bins in the same order
+     * @param dimensions number of hierarchical dimensions
+     * @return
+     */
+    static List<BinResult> deriveResults(Bin[] bins, BinResult[] results, int dimensions) {
+
+        // Prepare
+        List<BinResult> result = new ArrayList<>();
+        if (dimensions <= 0) {
+            return result;
+        }
+
+        // Collect leaves
+        List<String[]> coordinates = new ArrayList<>();
+        List<BigDecimal> values = new ArrayList<>();
+        for (int i = 0; i < bins.length; i++) {
+            if (bins[i].getAggregate() == null && isLeaf(bins[i].name, dimensions)) {
+                coordinates.add(getCoordinates(bins[i].name));
+                values.add(results[i].value);
+            }
+        }
+
+        // Roll up trailing dimensions level by level
+        for (int level = dimensions - 1; level >= 0; level--) {
+            Map<String, BigDecimal> totals = new LinkedHashMap<>();
+            for (int i = 0; i < coordinates.size(); i++) {
+                String name = getName(coordinates.get(i), level);
+                BigDecimal total = totals.get(name);
+                totals.put(name, total == null ? values.get(i) : total.add(values.get(i)));
+            }
+            for (Entry<String, BigDecimal> entry : totals.entrySet()) {
+                result.add(new BinResult(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        // Done
+        return result;
+    }
+
+    /**
+     * Splits a name into coordinates
+     *
+     * @param name
+     * @return
+     */
+    private static String[] getCoordinates(String name) {
+        return DELIMITER.split(name, -1);
+    }
+
+    /**
+     * Returns the name of a total keeping the given number of leading coordinates
+     *
+     * @param coordinates
+     * @param kept
+     * @return
+     */
+    private static String getName(String[] coordinates, int kept) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < coordinates.length; i++) {
+            if (i != 0) {
+                builder.append(Resources.AGGREGATION_DELIMITER);
+            }
+            builder.append(i < kept ? coordinates[i] : Resources.ROLL_UP_WILDCARD);
+        }
+        return builder.toString();
+    }
+}
@@ -15,6 +15,7 @@ package de.tu_darmstadt.cbs.emailsmpc;
 
 import org.bihealth.mi.easybus.Bus;
 import org.bihealth.mi.easybus.BusException;
+import org.bihealth.mi.easybus.BusPool;
 import org.bihealth.mi.easybus.ConnectionSettings;
 import org.bihealth.mi.easybus.ConnectionSettings.ExchangeMode;
 import org.bihealth.mi.easybus.implementations.email.BusEmail;
@@ -34,6 +35,9 @@ import java.io.Serializable;
 import java.math.BigDecimal;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.IntStream;
 
 /**
@@ -106,6 +110,10 @@ public class Study implements Serializable, Cloneable {
      * Exchange mode
      */
     private ExchangeMode exchangeMode = ExchangeMode.MANUAL;
+    /**
+     * Hierarchical dimensions of the bins or null
+     */
+    private String[] dimensions;
 
     /**
      * Instantiates a new app model.
@@ -143,6 +151,24 @@ public class Study implements Serializable, Cloneable {
         return model;
     }
 
+    /**
+     * Returns the number of participants from which shares of the current round are still missing
+     *
+     * @return number of messages missing
+     */
+    public synchronized int getNumberOfMessagesMissing() {
+        int result = 0;
+        for (int participant = 0; participant < getNumParticipants(); participant++) {
+            for (Bin bin : getBins()) {
+                if (!bin.isCompleteForParticipantId(participant)) {
+                    result++;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Have all messages been retrieved
      *
@@ -185,6 +211,7 @@ public class Study implements Serializable, Cloneable {
         newModel.setState(this.getState());
         newModel.setFilename(this.getFilename());
         newModel.setFractionalBits(this.getFractionalBits());
+        newModel.setDimensions(this.getDimensions());
         if (this.getBins() != null) {
             newModel.setBins(new Bin[this.getBins().length]);
             for (int i = 0; i < newModel.getBins().length; i++) {
@@ -258,7 +285,9 @@ public class Study implements Serializable, Cloneable {
     }
 
     /**
-     * Gets the all results.
+     * Gets the all results. The results of the bins are followed by the statistics derived
+     * from bins declaring aggregates, e.g. mean and variance, and by the roll-up totals of
+     * the hierarchical dimensions if declared.
      *
      * @return the all results
      * @throws IllegalStateException the illegal state exception
@@ -270,7 +299,16 @@ public class Study implements Serializable, Cloneable {
         for (int i = 0; i < getBins().length; i++) {
             result[i] = getBinResult(i);
         }
-        return result;
+        List<BinResult> derived = Aggregate.deriveResults(getBins(), result);
+        if (getDimensions() != null)
+            derived.addAll(RollUp.deriveResults(getBins(), result, getDimensions().length));
+        if (derived.isEmpty())
+            return result;
+        BinResult[] all = Arrays.copyOf(result, result.length + derived.size());
+        for (int i = 0; i < derived.size(); i++) {
+            all[result.length + i] = derived.get(i);
+        }
+        return all;
     }
 
     /**
@@ -289,6 +327,23 @@ public class Study implements Serializable, Cloneable {
         return new BinResult(getBins()[binId].name, getBins()[binId].reconstructBin(fractionalBits));
     }
 
+    /**
+     * @return the hierarchical dimensions of the bins or null
+     */
+    public synchronized String[] getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Declares the hierarchical dimensions of the bins, ordered from coarsest to finest.
+     * Bins are then expected to contain leaves only, roll-up totals are computed from the results.
+     *
+     * @param dimensions the dimensions or null
+     */
+    public synchronized void setDimensions(String[] dimensions) {
+        this.dimensions = dimensions;
+    }
+
     /**
      * @return the bins
      */
@@ -332,31 +387,96 @@ public class Study implements Serializable, Cloneable {
      * @throws BusException
      */
     public synchronized Bus getBus(int millis, boolean isSharedMailbox) throws BusException {
+        return getBus(millis, isSharedMailbox, null);
+    }
+
+    /**
+     * Returns the bus. Buses are taken from the {@link BusPool#getDefault() shared pool},
+     * so that studies using the same connection share one bus.
+     *
+     * @param millis          milliseconds interval to check for new mails. If zero a send only bus is returned
+     * @param isSharedMailbox
+     * @param executor        executor to send messages with. If null, the bus creates its own thread pool
+     * @return the bus
+     * @throws BusException
+     */
+    public synchronized Bus getBus(int millis, boolean isSharedMailbox, ExecutorService executor) throws BusException {
 
+        // Acquire if necessary
         if ((this.bus == null || !this.bus.isAlive()) && this.getConnectionSettings() != null) {
+            releaseBus();
+            final ConnectionSettings settings = getConnectionSettings();
+            final String ownName = participants[getOwnId()].name;
+            this.bus = BusPool.getDefault().acquire(BusPool.getKey(settings, ownName, isSharedMailbox),
+                    () -> createBus(settings, ownName, millis, isSharedMailbox, executor));
+        }
 
-            // Is e-mails bus?
-            if (this.getConnectionSettings() instanceof ConnectionSettingsIMAP) {
+        // Return
+        return this.bus;
+    }
 
-                this.bus = new BusEmail(new ConnectionIMAP((ConnectionSettingsIMAP) this.getConnectionSettings(),
-                        isSharedMailbox),
-                        millis > 0 ? millis : getConnectionSettings().getCheckInterval(),
-                        Resources.SIZE_THREADPOOL,
-                        this.getConnectionSettings().getMaxMessageSize());
-            }
+    /**
+     * Creates a bus for the given connection
+     *
+     * @param connectionSettings
+     * @param ownName            name of the own participant
+     * @param millis             milliseconds interval to check for new mails. If zero the interval of the settings is used
+     * @param isSharedMailbox
+     * @param executor           executor to send messages with. If null, the bus creates its own thread pool
+     * @return the bus or null if the exchange mode is not automated
+     * @throws BusException
+     */
+    public static Bus createBus(ConnectionSettings connectionSettings, String ownName, int millis, boolean isSharedMailbox, ExecutorService executor) throws BusException {
+
+        int interval = millis > 0 ? millis : connectionSettings.getCheckInterval();
+
+        // Is e-mails bus?
+        if (connectionSettings instanceof ConnectionSettingsIMAP) {
+            ConnectionIMAP connection = new ConnectionIMAP((ConnectionSettingsIMAP) connectionSettings, isSharedMailbox);
+            return executor != null ?
+                    new BusEmail(connection, interval, executor, connectionSettings.getMaxMessageSize()) :
+                    new BusEmail(connection, interval, Resources.SIZE_THREADPOOL, connectionSettings.getMaxMessageSize());
+        }
+
+        // Is EasyBackend bus?
+        if (connectionSettings instanceof ConnectionSettingsEasyBackend) {
+            ConnectionSettingsEasyBackend settings = (ConnectionSettingsEasyBackend) connectionSettings;
+            org.bihealth.mi.easybus.Participant self = new org.bihealth.mi.easybus.Participant(ownName, connectionSettings.getIdentifier());
+            return executor != null ?
+                    new BusEasyBackend(executor, interval, settings, self, connectionSettings.getMaxMessageSize()) :
+                    new BusEasyBackend(Resources.SIZE_THREADPOOL, interval, settings, self, connectionSettings.getMaxMessageSize());
+        }
+
+        // Not automated
+        return null;
+    }
 
-            // Is EasyBackend bus?
-            if (this.getConnectionSettings() instanceof ConnectionSettingsEasyBackend) {
-                this.bus = new BusEasyBackend(Resources.SIZE_THREADPOOL,
-                        millis > 0 ? millis : getConnectionSettings().getCheckInterval(),
-                        ((ConnectionSettingsEasyBackend) getConnectionSettings()),
-                        new org.bihealth.mi.easybus.Participant(participants[getOwnId()].name, getConnectionSettings().getIdentifier()),
-                        getConnectionSettings().getMaxMessageSize());
+    /**
+     * Sets a bus which has been created elsewhere, e.g., a bus shared by several studies. A bus
+     * acquired from the {@link BusPool#getDefault() shared pool} is released by the study. If the
+     * study already uses the bus, the additional reference is released immediately.
+     *
+     * @param bus the bus
+     */
+    public synchronized void setBus(Bus bus) {
+        if (bus == this.bus) {
+            if (bus != null && BusPool.getDefault().isPooled(bus)) {
+                BusPool.getDefault().release(bus);
             }
+            return;
         }
+        releaseBus();
+        this.bus = bus;
+    }
 
-        // Return
-        return this.bus;
+    /**
+     * Returns a bus taken from the shared pool and leaves other buses untouched
+     */
+    private void releaseBus() {
+        if (this.bus != null && BusPool.getDefault().isPooled(this.bus)) {
+            BusPool.getDefault().release(this.bus);
+            this.bus = null;
+        }
     }
 
     /**
@@ -842,11 +962,16 @@ public class Study implements Serializable, Cloneable {
     }
 
     /**
-     * Stops the bus
+     * Stops the bus. A bus taken from the shared pool is released and only stopped
+     * if no other study uses it.
      */
     public synchronized void stopBus() {
         if (this.bus != null) {
-            this.bus.stop();
+            if (BusPool.getDefault().isPooled(this.bus)) {
+                releaseBus();
+            } else {
+                this.bus.stop();
+            }
         }
     }
 
@@ -952,6 +1077,18 @@ public class Study implements Serializable, Cloneable {
         advanceState(StudyState.SENDING_SHARE);
     }
 
+    /**
+     * To sending shares. The values of all bins are derived from the given local observations.
+     *
+     * @param observations the observations by variable
+     * @throws IllegalArgumentException the illegal argument exception
+     * @throws IllegalStateException    the illegal state exception
+     * @throws IOException              Signals that an I/O exception has occurred.
+     */
+    public synchronized void toSendingShares(Map<String, List<BigDecimal>> observations) throws IllegalArgumentException, IllegalStateException, IOException {
+        toSendingShares(Aggregate.deriveValues(getBins(), observations));
+    }
+
     /**
      * Legal State Transitions:
      * +-----------------+     +------------------+
@@ -1033,6 +1170,7 @@ public class Study implements Serializable, Cloneable {
         setName(model.getName());
         setState(model.getState());
         setFractionalBits(model.getFractionalBits());
+        setDimensions(model.getDimensions());
     }
 
     /**
@@ -0,0 +1,98 @@
+package org.bihealth.mi.easybus;
+
+/**
+ * Adapts the interval of a poll task to the number of messages still expected. While
+ * messages are expected and arriving, polling is performed at the minimal interval. If
+ * no messages arrive, the interval is doubled up to the maximal interval. If no messages
+ * are expected, polling is paused until new messages are expected.
+ *
+ * @author Fabian Prasser
+ */
+public class AdaptivePolling {
+
+    /**
+     * Poll task
+     */
+    private final ReceiveService.Registration registration;
+    /**
+     * Minimal interval in milliseconds
+     */
+    private final long minInterval;
+    /**
+     * Maximal interval in milliseconds
+     */
+    private final long maxInterval;
+    /**
+     * Current interval in milliseconds
+     */
+    private long interval;
+
+    /**
+     * Creates a new instance
+     *
+     * @param registration
+     * @param minInterval  interval while messages are arriving
+     * @param maxInterval  interval if the number of expected messages is unknown and limit for backing off
+     */
+    public AdaptivePolling(ReceiveService.Registration registration, long minInterval, long maxInterval) {
+
+        // Check
+        if (registration == null) {
+            throw new NullPointerException("Registration must not be null");
+        }
+        if (minInterval <= 0 || maxInterval <= 0) {
+            throw new IllegalArgumentException("Intervals must be positive");
+        }
+
+        // Store
+        this.registration = registration;
+        this.minInterval = Math.min(minInterval, maxInterval);
+        this.maxInterval = maxInterval;
+        this.interval = maxInterval;
+    }
+
+    /**
+     * @return the current interval in milliseconds
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Adapts the interval after a poll
+     *
+     * @param expected number of messages still expected or -1 if unknown
+     * @param received number of messages received by the poll
+     */
+    public synchronized void update(int expected, int received) {
+
+        // Unknown: poll at fixed interval
+        if (expected < 0) {
+            interval = maxInterval;
+            registration.setInterval(interval);
+
+        // Nothing outstanding: pause
+        } else if (expected == 0) {
+            interval = minInterval;
+            registration.pause();
+
+        // Messages arriving: poll aggressively
+        } else if (received > 0) {
+            interval = minInterval;
+            registration.setInterval(interval);
+
+        // Idle: back off
+        } else {
+            interval = Math.min(interval * 2, maxInterval);
+            registration.setInterval(interval);
+        }
+    }
+
+    /**
+     * Polls immediately, e.g., because new messages are expected
+     */
+    public synchronized void wake() {
+        interval = minInterval;
+        registration.trigger();
+    }
+}
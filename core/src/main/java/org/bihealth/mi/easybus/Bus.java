@@ -0,0 +1,918 @@
+package org.bihealth.mi.easybus;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The Bus collecting and sending the messages
+ *
+ * @author Felix Wirth
+ * @author Fabian Prasser
+ */
+public abstract class Bus {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(Bus.class);
+    /**
+     * Delivers messages to a listener on the executor of the bus. Messages are passed on
+     * one after another in the order of arrival, so that listeners do not need to be thread-safe,
+     * while slow listeners do not block the delivery to other listeners.
+     *
+     * @author Fabian Prasser
+     */
+    private class Dispatcher implements Runnable {
+
+        /**
+         * Listener
+         */
+        private final MessageListener listener;
+        /**
+         * Messages waiting for delivery
+         */
+        private final Queue<BusMessage> pending = new ConcurrentLinkedQueue<>();
+        /**
+         * Whether a delivery task is scheduled
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        /**
+         * Creates a new instance
+         *
+         * @param listener
+         */
+        private Dispatcher(MessageListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Queues a message for delivery
+         *
+         * @param message
+         */
+        private void dispatch(BusMessage message) {
+            pending.add(message);
+            schedule();
+        }
+
+        @Override
+        public void run() {
+
+            // Deliver
+            BusMessage message;
+            while ((message = pending.poll()) != null) {
+                try {
+                    if (message.isBinary()) {
+                        listener.receive(message.getPayload());
+                    } else {
+                        listener.receive(message.getMessage());
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error in message listener", e);
+                }
+            }
+
+            // Release and check for messages queued in the meantime
+            scheduled.set(false);
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * Schedules a delivery task if none is scheduled
+         */
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Bus has been stopped
+                    scheduled.set(false);
+                    LOGGER.debug("Message not delivered as the bus has been stopped", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a batch of messages. Failed messages are rescheduled instead of waiting on a thread
+     * of the executor, which may be shared with other buses and with the delivery to listeners.
+     *
+     * @author Fabian Prasser
+     */
+    private class Sending implements Runnable {
+
+        /**
+         * Messages
+         */
+        private final List<BusMessage> batch;
+        /**
+         * Errors per message
+         */
+        private final Exception[] errors;
+        /**
+         * Futures of the messages
+         */
+        private final List<FutureTask<Void>> futures;
+        /**
+         * Queue in which slots have been acquired
+         */
+        private final OutboundQueue queue;
+        /**
+         * Number of slots acquired
+         */
+        private final int slots;
+        /**
+         * Performance listener or null
+         */
+        private final PerformanceListener listener;
+        /**
+         * Retry policy
+         */
+        private final RetryPolicy policy;
+        /**
+         * Indices of messages still to send
+         */
+        private List<Integer> pending = new ArrayList<>();
+        /**
+         * Number of the next retry
+         */
+        private int retry = 0;
+
+        /**
+         * Creates a new instance
+         *
+         * @param batch
+         * @param errors
+         * @param futures
+         * @param queue
+         * @param slots
+         * @param listener
+         */
+        private Sending(List<BusMessage> batch, Exception[] errors, List<FutureTask<Void>> futures,
+                        OutboundQueue queue, int slots, PerformanceListener listener) {
+            this.batch = batch;
+            this.errors = errors;
+            this.futures = futures;
+            this.queue = queue;
+            this.slots = slots;
+            this.listener = listener;
+            this.policy = retryPolicy;
+            for (int index = 0; index < batch.size(); index++) {
+                pending.add(index);
+            }
+        }
+
+        @Override
+        public void run() {
+
+            // Try to send
+            long delay;
+            try {
+                delay = attempt();
+            } catch (RuntimeException e) {
+                fail(e);
+                delay = -1;
+            }
+
+            // Done
+            if (delay < 0) {
+                complete();
+                return;
+            }
+
+            // Retry later on the executor
+            try {
+                RETRIES.schedule(() -> {
+                    try {
+                        executor.execute(this);
+                    } catch (RejectedExecutionException e) {
+                        fail(new BusException("Bus has been stopped", e));
+                        complete();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                fail(new BusException("Unable to schedule retry", e));
+                complete();
+            }
+        }
+
+        /**
+         * Starts sending
+         *
+         * @throws BusException if the bus has been stopped
+         */
+        private void start() throws BusException {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                queue.release(slots, listener);
+                throw new BusException("Bus has been stopped", e);
+            }
+        }
+
+        /**
+         * Sends all pending messages once
+         *
+         * @return time to wait before the next retry in milliseconds or -1 if done
+         */
+        private long attempt() {
+
+            // Skip cancelled messages
+            pending.removeIf(index -> futures.get(index).isCancelled());
+            if (pending.isEmpty()) {
+                return -1;
+            }
+
+            // Give up if the bus has been stopped in the meantime
+            if (retry > 0 && !isAlive()) {
+                fail(new BusException("Bus has been stopped"));
+                return -1;
+            }
+
+            // Prepare
+            List<BusMessage> messages = new ArrayList<>();
+            for (int index : pending) {
+                messages.add(batch.get(index));
+            }
+
+            // Try to send
+            Exception[] failures;
+            if (circuitBreaker.allowRequest()) {
+                try {
+                    failures = sendInternal(messages);
+                } catch (Exception e) {
+                    // Do not retry
+                    circuitBreaker.recordFailure();
+                    fail(e);
+                    return -1;
+                }
+                boolean sent = false;
+                for (Exception failure : failures) {
+                    sent |= failure == null;
+                }
+                if (sent) {
+                    circuitBreaker.recordSuccess();
+                } else {
+                    circuitBreaker.recordFailure();
+                }
+            } else {
+                failures = new Exception[messages.size()];
+                Arrays.fill(failures, new BusException("Transport is failing, sending suspended"));
+            }
+
+            // Collect messages to retry. An exhausted budget delays retries but does not end them.
+            List<Integer> retries = new ArrayList<>();
+            long delay = circuitBreaker.getRemainingOpenTime() + policy.getWaitTime(retry);
+            for (int position = 0; position < pending.size(); position++) {
+                int index = pending.get(position);
+                Exception failure = failures[position];
+                errors[index] = failure;
+                if (failure == null) {
+                    continue;
+                }
+                LOGGER.error("Error sending message", failure);
+                String receiver = batch.get(index).getReceiver().getEmailAddress();
+                if (policy.isExhausted(retry)) {
+                    errors[index] = new BusException(String.format("Unable to send message after %d retries", retry), failure);
+                } else {
+                    if (!retryBudget.tryAcquire(receiver)) {
+                        delay = Math.max(delay, retryBudget.getWaitTime(receiver));
+                    }
+                    retries.add(index);
+                }
+            }
+
+            // Check
+            pending = retries;
+            if (retries.isEmpty()) {
+                return -1;
+            }
+
+            // Wait
+            retry++;
+            return delay;
+        }
+
+        /**
+         * Completes the futures and releases the slots of the queue
+         */
+        private void complete() {
+            queue.release(slots, listener);
+            for (FutureTask<Void> future : futures) {
+                future.run();
+            }
+        }
+
+        /**
+         * Marks all pending messages as failed
+         *
+         * @param error
+         */
+        private void fail(Exception error) {
+            for (int index : pending) {
+                errors[index] = error;
+            }
+            pending = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Schedules retries of all buses. Retries are performed on the executor of the respective bus.
+     */
+    private static final ScheduledExecutorService RETRIES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "EasyBus-Retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Stores the subscriptions with known participants
+     */
+    private final ConcurrentMap<Scope, ConcurrentMap<Participant, List<Dispatcher>>> subscriptions;
+    /**
+     * Executor service
+     */
+    private final ExecutorService executor;
+    /**
+     * Whether the executor has been created by and is owned by this bus
+     */
+    private final boolean ownsExecutor;
+    /**
+     * Retry policy for sending
+     */
+    private volatile RetryPolicy retryPolicy = new RetryPolicy(Resources.RETRY_NUMBER_RETRY,
+                                                                Resources.RETRY_BASE_WAIT_TIME_RETRY,
+                                                                Resources.RETRY_MAX_WAIT_TIME_RETRY);
+    /**
+     * Retry budget per receiver
+     */
+    private final RetryBudget retryBudget = new RetryBudget(Resources.RETRY_BUDGET_SIZE, Resources.RETRY_BUDGET_REFILL_TIME);
+    /**
+     * Circuit breaker of the transport
+     */
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(Resources.CIRCUIT_BREAKER_FAILURE_THRESHOLD, Resources.CIRCUIT_BREAKER_OPEN_TIME);
+    /**
+     * Queue bounding the messages waiting to be sent
+     */
+    private volatile OutboundQueue outboundQueue = new OutboundQueue(Resources.OUTBOUND_QUEUE_CAPACITY, OutboundQueue.Backpressure.BLOCK);
+    /**
+     * Performance listener or null
+     */
+    private volatile PerformanceListener performanceListener = null;
+    /**
+     * Identifiers of messages which have already been processed
+     */
+    private volatile SeenMessages seenMessages = new SeenMessages(Resources.SEEN_MESSAGES_CAPACITY);
+    /**
+     * Number of messages still expected per scope
+     */
+    private final ConcurrentMap<Scope, Integer> expectedMessages = new ConcurrentHashMap<>();
+    /**
+     * Adaptive polling or null
+     */
+    private volatile AdaptivePolling polling = null;
+
+    /**
+     * Creates a new instance
+     *
+     * @param sizeThreadpool
+     */
+    public Bus(int sizeThreadpool) {
+        this(sizeThreadpool, null);
+    }
+
+    /**
+     * Creates a new instance sending on a shared executor, e.g. the worker pool of a scheduler
+     * running several studies. The executor is not shut down when the bus is stopped.
+     *
+     * @param executor
+     */
+    public Bus(ExecutorService executor) {
+        this(0, Objects.requireNonNull(executor, "executor must not be null"));
+    }
+
+    /**
+     * Creates a new instance sending on the given executor or on an own thread pool
+     *
+     * @param sizeThreadpool - size of the own thread pool, ignored if an executor is given
+     * @param executor       - shared executor, which is not shut down when the bus is stopped, or null
+     */
+    protected Bus(int sizeThreadpool, ExecutorService executor) {
+
+        // Check
+        if (executor == null && sizeThreadpool <= 0) {
+            throw new IllegalArgumentException("sizeThreadpool must be a positive number");
+        }
+
+        // Create or store
+        this.executor = executor != null ? executor : Executors.newFixedThreadPool(sizeThreadpool);
+        this.ownsExecutor = executor == null;
+        this.subscriptions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns whether potentially running backend services are alive
+     *
+     * @return
+     */
+    public abstract boolean isAlive();
+
+    /**
+     * Sets the queue bounding the messages waiting to be sent
+     *
+     * @param outboundQueue
+     */
+    public void setOutboundQueue(OutboundQueue outboundQueue) {
+
+        // Check
+        if (outboundQueue == null) {
+            throw new NullPointerException("outboundQueue must not be null");
+        }
+
+        // Store
+        this.outboundQueue = outboundQueue;
+    }
+
+    /**
+     * Sets the number of messages still expected for a scope, e.g., by the current round of a study.
+     * Buses polling for messages use this to adapt their polling interval.
+     *
+     * @param scope
+     * @param count
+     */
+    public void setExpectedMessages(Scope scope, int count) {
+
+        // Check
+        if (scope == null) {
+            throw new NullPointerException("scope must not be null");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative");
+        }
+
+        // Store and poll if messages are newly expected
+        Integer previous = expectedMessages.put(scope, count);
+        if (count > 0 && (previous == null || previous == 0)) {
+            wakePolling();
+        }
+    }
+
+    /**
+     * Returns the number of messages still expected by all subscribed scopes
+     *
+     * @return the number or -1 if unknown for at least one scope
+     */
+    public int getExpectedMessages() {
+        int result = 0;
+        for (Scope scope : subscriptions.keySet()) {
+            Integer expected = expectedMessages.get(scope);
+            if (expected == null) {
+                return -1;
+            }
+            result += expected;
+        }
+        return result;
+    }
+
+    /**
+     * Sets a listener for performance indicators
+     *
+     * @param performanceListener - or null
+     */
+    public void setPerformanceListener(PerformanceListener performanceListener) {
+        this.performanceListener = performanceListener;
+    }
+
+    /**
+     * Sets the policy for retrying to send messages
+     *
+     * @param retryPolicy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+
+        // Check
+        if (retryPolicy == null) {
+            throw new NullPointerException("retryPolicy must not be null");
+        }
+
+        // Store
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the set used to suppress duplicate deliveries, e.g. to persist it across restarts
+     *
+     * @param seenMessages
+     */
+    public void setSeenMessages(SeenMessages seenMessages) {
+
+        // Check
+        if (seenMessages == null) {
+            throw new NullPointerException("seenMessages must not be null");
+        }
+
+        // Store
+        this.seenMessages = seenMessages;
+    }
+
+    /**
+     * Allows to subscribe to a scope for a participant
+     *
+     * @param scope
+     * @param participant
+     * @param messageListener
+     */
+    public void receive(Scope scope, Participant participant, MessageListener messageListener) {
+
+        // Get or create scope and listeners for participant and add atomically
+        subscriptions.compute(scope, (key, subscriptionsForScope) -> {
+            if (subscriptionsForScope == null) {
+                subscriptionsForScope = new ConcurrentHashMap<>();
+            }
+            subscriptionsForScope.computeIfAbsent(participant, k -> new CopyOnWriteArrayList<>())
+                                 .add(new Dispatcher(messageListener));
+            return subscriptionsForScope;
+        });
+
+        // Poll for the new subscriber
+        wakePolling();
+    }
+
+    /**
+     * Removes a listener for a scope and participant
+     *
+     * @param scope
+     * @param participant
+     * @param messageListener
+     */
+    public void unsubscribe(Scope scope, Participant participant, MessageListener messageListener) {
+
+        // Remove listener and clean up empty entries atomically
+        subscriptions.computeIfPresent(scope, (key, subscriptionsForScope) -> {
+            subscriptionsForScope.computeIfPresent(participant, (k, listenerForParticipant) -> {
+                for (Dispatcher dispatcher : listenerForParticipant) {
+                    if (dispatcher.listener.equals(messageListener)) {
+                        listenerForParticipant.remove(dispatcher);
+                        break;
+                    }
+                }
+                return listenerForParticipant.isEmpty() ? null : listenerForParticipant;
+            });
+            return subscriptionsForScope.isEmpty() ? null : subscriptionsForScope;
+        });
+
+        // Forget expected messages of scopes without subscribers
+        if (!subscriptions.containsKey(scope)) {
+            expectedMessages.remove(scope);
+        }
+    }
+
+    /**
+     * Passes on receiving errors
+     */
+    public void receiveErrorInternal(Exception exception) {
+
+        for (Map<Participant, List<Dispatcher>> scope : subscriptions.values()) {
+            for (List<Dispatcher> participant : scope.values()) {
+                for (Dispatcher dispatcher : participant) {
+                    dispatcher.listener.receiveError(exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Allows to send a message to a participant.
+     * In case of error retries with exponential backoff according to the retry policy until the bus is stopped.
+     * Retries are slowed down if the retry budget for the participant is exhausted or the transport is considered failing.
+     * Error handling must be done by using the returned FutureTask object
+     *
+     * @param message
+     * @param scope
+     * @param participant
+     * @return
+     * @throws BusException
+     */
+    public FutureTask<Void> send(String message, Scope scope, Participant participant) throws BusException {
+        return sendAll(Collections.singletonList(new BusMessage(participant, scope, message))).get(0);
+    }
+
+    /**
+     * Allows to send a binary payload to a participant. See {@link #send(String, Scope, Participant)}.
+     *
+     * @param message
+     * @param scope
+     * @param participant
+     * @return
+     * @throws BusException
+     */
+    public FutureTask<Void> send(byte[] message, Scope scope, Participant participant) throws BusException {
+        return sendAll(Collections.singletonList(new BusMessage(participant, scope, message))).get(0);
+    }
+
+    /**
+     * Sends several messages in one batch, allowing transports to use a single operation for all of them.
+     * Retries are performed as described for {@link #send(String, Scope, Participant)}.
+     * Cancelling a future excludes the message from further retries. If the outbound queue
+     * is full, the call blocks or fails, depending on the backpressure strategy of the queue.
+     *
+     * @param messages
+     * @return a future for each message in the order of the collection
+     * @throws BusException if the outbound queue is full or waiting for it has been interrupted
+     */
+    public List<FutureTask<Void>> sendAll(Collection<BusMessage> messages) throws BusException {
+
+        // Prepare
+        List<BusMessage> batch = new ArrayList<>(messages);
+        OutboundQueue queue = this.outboundQueue;
+        PerformanceListener listener = this.performanceListener;
+        Exception[] errors = new Exception[batch.size()];
+        List<FutureTask<Void>> result = new ArrayList<>();
+        for (int index = 0; index < batch.size(); index++) {
+            final int _index = index;
+            result.add(new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if (errors[_index] != null) {
+                        throw errors[_index];
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        // Enqueue
+        int slots = queue.acquire(batch.size(), listener);
+
+        // Send and complete futures
+        new Sending(batch, errors, result, queue, slots, listener).start();
+
+        // Return
+        return result;
+    }
+
+    /**
+     * Stops all backend services that might be running
+     */
+    public abstract void stop();
+
+    /**
+     * Opens and authenticates the underlying connections ahead of time, so that
+     * this does not delay sending or receiving the first message
+     *
+     * @throws BusException
+     */
+    public void warmUp() throws BusException {
+        // Empty by design
+    }
+
+    /**
+     * @return the executor
+     */
+    protected ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Shuts down the executor if it is owned by this bus
+     */
+    protected void shutdownExecutor() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns whether a message with the given identifier has already been processed
+     *
+     * @param messageID
+     * @return
+     */
+    protected boolean isSeen(String messageID) {
+        return seenMessages.contains(messageID);
+    }
+
+    /**
+     * Returns whether the given message is a fragment of a message which has already been processed
+     *
+     * @param message
+     * @return
+     */
+    protected boolean isSeen(BusMessage message) {
+        return message instanceof BusMessageFragment && isSeen(((BusMessageFragment) message).getMessageID());
+    }
+
+    /**
+     * Marks a message as processed
+     *
+     * @param messageID
+     */
+    protected void markSeen(String messageID) {
+        seenMessages.add(messageID);
+    }
+
+    /**
+     * Persists the identifiers of processed messages if needed
+     */
+    protected void persistSeen() {
+        try {
+            seenMessages.persist();
+        } catch (IOException e) {
+            LOGGER.error("Unable to persist processed messages", e);
+        }
+    }
+
+    /**
+     * Is there a listener for the participant and scope registered
+     *
+     * @param scope
+     * @param participant
+     * @return
+     */
+    protected boolean isParticipantScopeRegistered(Scope scope, Participant participant) {
+        // Check not null
+        if (scope == null || participant == null) {
+            return false;
+        }
+
+        // Check if scope exists
+        Map<Participant, List<Dispatcher>> subscriptionsForScope = subscriptions.get(scope);
+        if (subscriptionsForScope == null) {
+            return false;
+        }
+
+        // Check if at least one listener is registered for scope and participant tuple
+        List<Dispatcher> listenerForParticipant = subscriptionsForScope.get(participant);
+        return listenerForParticipant != null && !listenerForParticipant.isEmpty();
+    }
+
+    /**
+     * Receives an external received message. The message is passed on to the
+     * listeners asynchronously on the executor of the bus.
+     *
+     * @param message
+     * @throws InterruptedException
+     */
+    protected boolean receiveInternal(BusMessage message) throws InterruptedException {
+
+        // Check for interrupt
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        // Mark received
+        boolean received = false;
+
+        // Send to subscribers
+        Map<Participant, List<Dispatcher>> subscriptionsForScope = subscriptions.get(message.getScope());
+        List<Dispatcher> listenerForParticipant = subscriptionsForScope == null ? null : subscriptionsForScope.get(message.getReceiver());
+        if (listenerForParticipant != null) {
+            for (Dispatcher dispatcher : listenerForParticipant) {
+                dispatcher.dispatch(message);
+                received = true;
+            }
+        }
+
+        // Count down expected messages
+        if (received) {
+            expectedMessages.computeIfPresent(message.getScope(), (key, expected) -> Math.max(0, expected - 1));
+        }
+
+        // Done
+        return received;
+    }
+
+    /**
+     * Sets the adaptive polling of implementations polling for messages
+     *
+     * @param polling
+     */
+    protected void setPolling(AdaptivePolling polling) {
+        this.polling = polling;
+    }
+
+    /**
+     * Adapts the polling interval after a poll
+     *
+     * @param received number of complete messages received
+     */
+    protected void pollCompleted(int received) {
+        AdaptivePolling polling = this.polling;
+        if (polling != null) {
+            polling.update(getExpectedMessages(), received);
+        }
+    }
+
+    /**
+     * Polls immediately
+     */
+    private void wakePolling() {
+        AdaptivePolling polling = this.polling;
+        if (polling != null) {
+            polling.wake();
+        }
+    }
+
+    /**
+     * Abstract method to send a message
+     *
+     * @param message
+     * @return task
+     * @throws Exception
+     */
+    protected abstract Void sendInternal(BusMessage message) throws Exception;
+
+    /**
+     * Sends several messages. Implementations may override this to send all messages in one operation.
+     *
+     * @param messages
+     * @return for each message an error or null if it has been sent
+     * @throws Exception if sending failed in a way that should not be retried
+     */
+    protected Exception[] sendInternal(List<BusMessage> messages) throws Exception {
+
+        // Prepare
+        Exception[] result = new Exception[messages.size()];
+
+        // Send one by one
+        for (int index = 0; index < messages.size(); index++) {
+            try {
+                sendInternal(messages.get(index));
+            } catch (Exception e) {
+                result[index] = e;
+            }
+        }
+
+        // Return
+        return result;
+    }
+
+    /**
+     * Deletes EasySMPC relevant data
+     *
+     * @throws BusException, InterruptedException
+     */
+    public abstract void purge(MessageFilter filter) throws BusException, InterruptedException;
+
+
+    /**
+     * Returns the names of all scopes with subscriptions
+     *
+     * @return
+     */
+    protected List<String> getSubscribedScopes() {
+        List<String> result = new ArrayList<>();
+        for (Scope scope : subscriptions.keySet()) {
+            result.add(scope.getName());
+        }
+        return result;
+    }
+
+    /**
+     * Get all scopes for a participant
+     *
+     * @param participant
+     * @return
+     */
+    protected List<String> getScopesForParticipant(Participant participant) {
+        // Prepare
+        List<String> result = new ArrayList<>();
+
+        // Loop over scopes
+        for (Entry<Scope, ConcurrentMap<Participant, List<Dispatcher>>> subscription : subscriptions.entrySet()) {
+            if (subscription.getValue().containsKey(participant)) {
+                result.add(subscription.getKey().getName());
+            }
+        }
+
+        // Return
+        return result;
+    }
+}
\ No newline at end of file
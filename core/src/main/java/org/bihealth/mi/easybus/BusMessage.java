@@ -1,9 +1,12 @@
 package org.bihealth.mi.easybus;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
 
 /**
- * Internal message used by bus implementations
+ * Internal message used by bus implementations. Carries either a text message or a binary payload.
  *
  * @author Fabian Prasser
  */
@@ -25,6 +28,10 @@ public class BusMessage implements Serializable {
      * Message: A serialized base 64 encoded blob
      */
     protected final String message;
+    /**
+     * Binary payload, used instead of the message
+     */
+    protected final byte[] payload;
 
     /**
      * Message
@@ -34,9 +41,18 @@ public class BusMessage implements Serializable {
      * @param message
      */
     public BusMessage(Participant receiver, Scope scope, String message) {
-        this.receiver = receiver;
-        this.scope = scope;
-        this.message = message;
+        this(receiver, scope, message, null);
+    }
+
+    /**
+     * Message with a binary payload
+     *
+     * @param receiver
+     * @param scope
+     * @param payload
+     */
+    public BusMessage(Participant receiver, Scope scope, byte[] payload) {
+        this(receiver, scope, null, payload);
     }
 
     /**
@@ -45,7 +61,22 @@ public class BusMessage implements Serializable {
      * @param other
      */
     public BusMessage(BusMessage other) {
-        this(other.receiver, other.scope, other.message);
+        this(other.receiver, other.scope, other.message, other.payload);
+    }
+
+    /**
+     * Message
+     *
+     * @param receiver
+     * @param scope
+     * @param message
+     * @param payload
+     */
+    private BusMessage(Participant receiver, Scope scope, String message, byte[] payload) {
+        this.receiver = receiver;
+        this.scope = scope;
+        this.message = message;
+        this.payload = payload;
     }
 
     /**
@@ -67,6 +98,7 @@ public class BusMessage implements Serializable {
         if (message == null) {
             if (other.message != null) return false;
         } else if (!message.equals(other.message)) return false;
+        if (!Arrays.equals(payload, other.payload)) return false;
         if (receiver == null) {
             if (other.receiver != null) return false;
         } else if (!receiver.equals(other.receiver)) return false;
@@ -86,12 +118,21 @@ public class BusMessage implements Serializable {
     }
 
     /**
-     * Return the message
+     * Return the message. A binary payload is returned Base64 encoded.
      *
      * @return the message
      */
     public String getMessage() {
-        return message;
+        return payload != null ? Base64.getEncoder().encodeToString(payload) : message;
+    }
+
+    /**
+     * Return the binary payload. A text message is returned UTF-8 encoded.
+     *
+     * @return the payload
+     */
+    public byte[] getPayload() {
+        return payload != null ? payload : message == null ? null : message.getBytes(StandardCharsets.UTF_8);
     }
 
 
@@ -113,11 +154,21 @@ public class BusMessage implements Serializable {
         return scope;
     }
 
+    /**
+     * Returns whether this message carries a binary payload
+     *
+     * @return
+     */
+    public boolean isBinary() {
+        return payload != null;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
         result = prime * result + ((message == null) ? 0 : message.hashCode());
+        result = prime * result + Arrays.hashCode(payload);
         result = prime * result + ((receiver == null) ? 0 : receiver.hashCode());
         result = prime * result + ((scope == null) ? 0 : scope.hashCode());
         return result;
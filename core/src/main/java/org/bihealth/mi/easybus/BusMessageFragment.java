@@ -0,0 +1,375 @@
+package org.bihealth.mi.easybus;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Represents a fragment/splitted part of a BusMessage.
+ * The content is carried as a slice of the binary payload or the UTF-8 encoded message
+ * together with the length of the complete message and a checksum. The fragments of a message
+ * share one array, the slice is only copied when the fragment is serialized.
+ *
+ * @author Felix Wirth
+ */
+public class BusMessageFragment extends BusMessage implements Serializable {
+
+    /**
+     * SVUID
+     */
+    private static final long serialVersionUID = 6052197734826459118L;
+    /**
+     * Number of this message fragment
+     */
+    private final int fragmentNumber;
+    /**
+     * Total of fragments
+     */
+    private final int numberOfFragments;
+    /**
+     * Id of message (same over all fragments)
+     */
+    private final String messageID;
+    /**
+     * Whether the complete message carries a binary payload
+     */
+    private final boolean binaryMessage;
+    /**
+     * Length of the complete message in bytes
+     */
+    private final int messageLength;
+    /**
+     * CRC32 checksum of the payload
+     */
+    private final long checksum;
+    /**
+     * Offset of the content of this fragment in the payload array
+     */
+    private transient int offset;
+    /**
+     * Length of the content of this fragment
+     */
+    private transient int length;
+
+
+    /**
+     * Creates a new instance
+     *
+     * @param receiver
+     * @param scope
+     * @param message
+     * @param messageID
+     * @param fragmentNumber
+     * @param numberOfFragments
+     */
+    public BusMessageFragment(Participant receiver,
+                              Scope scope,
+                              String message,
+                              String messageID,
+                              int fragmentNumber,
+                              int numberOfFragments) {
+        this(receiver,
+             scope,
+             message.getBytes(StandardCharsets.UTF_8),
+             messageID,
+             fragmentNumber,
+             numberOfFragments,
+             -1,
+             false);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param receiver
+     * @param scope
+     * @param payload
+     * @param messageID
+     * @param fragmentNumber
+     * @param numberOfFragments
+     * @param messageLength - length of the complete message in bytes or -1 if unknown
+     * @param binaryMessage - whether the complete message carries a binary payload
+     */
+    public BusMessageFragment(Participant receiver,
+                              Scope scope,
+                              byte[] payload,
+                              String messageID,
+                              int fragmentNumber,
+                              int numberOfFragments,
+                              int messageLength,
+                              boolean binaryMessage) {
+        this(receiver, scope, payload, 0, payload == null ? 0 : payload.length, messageID, fragmentNumber, numberOfFragments, messageLength, binaryMessage);
+    }
+
+    /**
+     * Creates a new instance carrying a slice of the given array, which is not copied
+     *
+     * @param receiver
+     * @param scope
+     * @param payload
+     * @param offset - of the slice
+     * @param length - of the slice
+     * @param messageID
+     * @param fragmentNumber
+     * @param numberOfFragments
+     * @param messageLength - length of the complete message in bytes or -1 if unknown
+     * @param binaryMessage - whether the complete message carries a binary payload
+     */
+    public BusMessageFragment(Participant receiver,
+                              Scope scope,
+                              byte[] payload,
+                              int offset,
+                              int length,
+                              String messageID,
+                              int fragmentNumber,
+                              int numberOfFragments,
+                              int messageLength,
+                              boolean binaryMessage) {
+        this(receiver, scope, payload, offset, length, messageID, fragmentNumber, numberOfFragments, messageLength, binaryMessage,
+             payload == null ? 0 : checksum(payload, offset, length));
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param receiver
+     * @param scope
+     * @param payload
+     * @param offset
+     * @param length
+     * @param messageID
+     * @param fragmentNumber
+     * @param numberOfFragments
+     * @param messageLength
+     * @param binaryMessage
+     * @param checksum
+     */
+    private BusMessageFragment(Participant receiver,
+                               Scope scope,
+                               byte[] payload,
+                               int offset,
+                               int length,
+                               String messageID,
+                               int fragmentNumber,
+                               int numberOfFragments,
+                               int messageLength,
+                               boolean binaryMessage,
+                               long checksum) {
+        // Super
+        super(receiver, scope, payload);
+
+        // Check
+        if (messageID == null || payload == null) {
+            throw new NullPointerException("Id and content can not be null!");
+        }
+
+        if (fragmentNumber >= numberOfFragments || numberOfFragments < 1) {
+            throw new IllegalArgumentException("Number of fragments must be greater than 0 and fragment number must be lower than number of fragments");
+        }
+        if (offset < 0 || length < 0 || offset > payload.length - length) {
+            throw new IllegalArgumentException("Slice exceeds the payload");
+        }
+
+        // Store
+        this.messageID = messageID;
+        this.fragmentNumber = fragmentNumber;
+        this.numberOfFragments = numberOfFragments;
+        this.messageLength = messageLength;
+        this.binaryMessage = binaryMessage;
+        this.checksum = checksum;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Create from other message
+     *
+     * @param other
+     */
+    public BusMessageFragment(BusMessageFragment other) {
+        this(other.receiver,
+                other.scope,
+                other.payload,
+                other.offset,
+                other.length,
+                other.messageID,
+                other.fragmentNumber,
+                other.numberOfFragments,
+                other.messageLength,
+                other.binaryMessage,
+                other.checksum);
+    }
+
+    /**
+     * Calculates the CRC32 checksum of the given slice
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return
+     */
+    private static long checksum(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null) return false;
+        if (getClass() != obj.getClass()) return false;
+        BusMessageFragment other = (BusMessageFragment) obj;
+        if (!getPayloadBuffer().equals(other.getPayloadBuffer())) return false;
+        if (receiver == null) {
+            if (other.receiver != null) return false;
+        } else if (!receiver.equals(other.receiver)) return false;
+        if (scope == null) {
+            if (other.scope != null) return false;
+        } else if (!scope.equals(other.scope)) return false;
+        if (fragmentNumber != other.fragmentNumber) return false;
+        if (messageLength != other.messageLength) return false;
+        if (binaryMessage != other.binaryMessage) return false;
+        if (messageID == null) {
+            if (other.messageID != null) return false;
+        } else if (!messageID.equals(other.messageID)) return false;
+        return numberOfFragments == other.numberOfFragments;
+    }
+
+    /**
+     * @return the fragmentNumber
+     */
+    public int getFragmentNumber() {
+        return fragmentNumber;
+    }
+
+    /**
+     * @return the checksum
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Returns the content of this fragment. Since fragments are cut at byte
+     * boundaries, the content of a single fragment may not be valid UTF-8.
+     */
+    @Override
+    public String getMessage() {
+        return new String(payload, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the id
+     */
+    public String getMessageID() {
+        return messageID;
+    }
+
+    /**
+     * @return the length of the complete message in bytes or -1 if unknown
+     */
+    public int getMessageLength() {
+        return messageLength;
+    }
+
+    /**
+     * @return the numberOfFragments
+     */
+    public int getNumberOfFragments() {
+        return numberOfFragments;
+    }
+
+    /**
+     * Returns the content of this fragment, which is copied if the fragment carries a slice
+     */
+    @Override
+    public byte[] getPayload() {
+        return offset == 0 && length == payload.length ? payload : Arrays.copyOfRange(payload, offset, offset + length);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = getPayloadBuffer().hashCode();
+        result = prime * result + ((receiver == null) ? 0 : receiver.hashCode());
+        result = prime * result + ((scope == null) ? 0 : scope.hashCode());
+        result = prime * result + fragmentNumber;
+        result = prime * result + ((messageID == null) ? 0 : messageID.hashCode());
+        result = prime * result + numberOfFragments;
+        result = prime * result + messageLength;
+        result = prime * result + (binaryMessage ? 1231 : 1237);
+        return result;
+    }
+
+    /**
+     * Returns a read-only view on the payload
+     *
+     * @return the payload
+     */
+    public ByteBuffer getPayloadBuffer() {
+        return ByteBuffer.wrap(payload, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the length of the payload in bytes
+     */
+    public int getPayloadLength() {
+        return length;
+    }
+
+    /**
+     * @return whether the complete message carries a binary payload
+     */
+    public boolean isBinaryMessage() {
+        return binaryMessage;
+    }
+
+    /**
+     * Checks whether the payload matches the checksum
+     *
+     * @return
+     */
+    public boolean isValid() {
+        return checksum(payload, offset, length) == checksum;
+    }
+
+    /**
+     * Restores the slice, which covers the whole payload after deserialization
+     *
+     * @param in
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.offset = 0;
+        this.length = payload == null ? 0 : payload.length;
+    }
+
+    /**
+     * Serializes only the slice carried by this fragment
+     *
+     * @return
+     */
+    protected Object writeReplace() {
+        if (offset == 0 && length == payload.length) {
+            return this;
+        }
+        return new BusMessageFragment(receiver,
+                                      scope,
+                                      Arrays.copyOfRange(payload, offset, offset + length),
+                                      0,
+                                      length,
+                                      messageID,
+                                      fragmentNumber,
+                                      numberOfFragments,
+                                      messageLength,
+                                      binaryMessage,
+                                      checksum);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,174 @@
+package org.bihealth.mi.easybus;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Shares buses between studies and processes using the same connection. Each bus owns one
+ * transport connection and one receive loop; subscribers are distinguished by their scope.
+ * Buses are reference-counted and stopped once they are not used anymore.
+ *
+ * @author Fabian Prasser
+ */
+public class BusPool {
+
+    /**
+     * Creates a bus if none is available for a connection
+     *
+     * @author Fabian Prasser
+     */
+    public interface BusFactory {
+
+        /**
+         * Creates the bus
+         *
+         * @return the bus or null if the connection is not automated
+         * @throws BusException
+         */
+        Bus create() throws BusException;
+    }
+
+    /**
+     * Pool shared within the process
+     */
+    private static final BusPool DEFAULT = new BusPool();
+
+    /**
+     * Buses by key
+     */
+    private final Map<String, Bus> buses = new HashMap<>();
+    /**
+     * Number of users by key
+     */
+    private final Map<String, Integer> usages = new HashMap<>();
+    /**
+     * Keys by bus
+     */
+    private final Map<Bus, String> keys = new IdentityHashMap<>();
+
+    /**
+     * Returns the pool shared within the process
+     *
+     * @return
+     */
+    public static BusPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the key identifying a connection. Buses are shared by users
+     * with the same connection and the same own participant.
+     *
+     * @param connectionSettings
+     * @param ownName            name of the own participant
+     * @param isSharedMailbox
+     * @return
+     */
+    public static String getKey(ConnectionSettings connectionSettings, String ownName, boolean isSharedMailbox) {
+        return connectionSettings.getExchangeMode().name() + ":" +
+                connectionSettings.getIdentifier() + ":" +
+                ownName + (isSharedMailbox ? ":shared" : "");
+    }
+
+    /**
+     * Returns the bus for the given key and registers a further user. If no bus is
+     * available or the bus is not alive anymore, a new bus is created. The settings of the
+     * first user, e.g., the check interval, are used for all users of a bus.
+     *
+     * @param key     as returned by {@link #getKey(ConnectionSettings, String, boolean)}
+     * @param factory to create the bus with
+     * @return the bus or null if the factory returned null
+     * @throws BusException
+     */
+    public synchronized Bus acquire(String key, BusFactory factory) throws BusException {
+
+        // Check
+        if (key == null || factory == null) {
+            throw new NullPointerException("Key and factory must not be null");
+        }
+
+        // Create if necessary
+        Bus bus = buses.get(key);
+        if (bus == null || !bus.isAlive()) {
+            if (bus != null) {
+                // Users of the dead bus are not counted anymore
+                keys.remove(bus);
+                usages.remove(key);
+            }
+            bus = factory.create();
+            if (bus == null) {
+                return null;
+            }
+            buses.put(key, bus);
+            keys.put(bus, key);
+        }
+
+        // Register user
+        usages.merge(key, 1, Integer::sum);
+
+        // Return
+        return bus;
+    }
+
+    /**
+     * Returns the number of users of the bus with the given key
+     *
+     * @param key
+     * @return
+     */
+    public synchronized int getUsages(String key) {
+        Integer result = usages.get(key);
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * Returns whether the bus has been acquired from this pool and is still in use
+     *
+     * @param bus
+     * @return
+     */
+    public synchronized boolean isPooled(Bus bus) {
+        return bus != null && keys.containsKey(bus);
+    }
+
+    /**
+     * Releases a bus acquired from this pool and stops it if it is not used anymore.
+     * Buses not managed by this pool are ignored.
+     *
+     * @param bus
+     */
+    public synchronized void release(Bus bus) {
+
+        // Check
+        String key = bus == null ? null : keys.get(bus);
+        if (key == null) {
+            return;
+        }
+
+        // Unregister user
+        Integer count = usages.get(key);
+        if (count != null && count > 1) {
+            usages.put(key, count - 1);
+            return;
+        }
+
+        // Stop
+        usages.remove(key);
+        buses.remove(key);
+        keys.remove(bus);
+        bus.stop();
+    }
+
+    /**
+     * Stops all buses of this pool
+     */
+    public synchronized void stop() {
+        for (Bus bus : buses.values()) {
+            bus.stop();
+        }
+        buses.clear();
+        usages.clear();
+        keys.clear();
+    }
+}
@@ -0,0 +1,101 @@
+package org.bihealth.mi.easybus;
+
+/**
+ * Circuit breaker for a transport. After a number of consecutive failures the circuit
+ * opens and requests fail fast. Once the open time has passed, a single probe request is
+ * let through: if it succeeds the circuit closes, otherwise it opens again.
+ *
+ * @author Fabian Prasser
+ */
+public class CircuitBreaker {
+
+    /**
+     * Number of consecutive failures opening the circuit
+     */
+    private final int failureThreshold;
+    /**
+     * Time in milliseconds the circuit stays open
+     */
+    private final long openTime;
+    /**
+     * Consecutive failures
+     */
+    private int failures = 0;
+    /**
+     * Time until which the circuit is open
+     */
+    private long openUntil = 0;
+    /**
+     * Whether a probe request is in progress
+     */
+    private boolean probing = false;
+
+    /**
+     * Creates a new instance
+     *
+     * @param failureThreshold
+     * @param openTime in milliseconds
+     */
+    public CircuitBreaker(int failureThreshold, long openTime) {
+
+        // Check
+        if (failureThreshold <= 0 || openTime <= 0) {
+            throw new IllegalArgumentException("Threshold and open time must be positive");
+        }
+
+        // Store
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * Returns whether a request may be performed
+     *
+     * @return
+     */
+    public synchronized boolean allowRequest() {
+
+        // Closed
+        if (failures < failureThreshold) {
+            return true;
+        }
+
+        // Open
+        if (System.currentTimeMillis() < openUntil || probing) {
+            return false;
+        }
+
+        // Half open: let one probe through
+        probing = true;
+        return true;
+    }
+
+    /**
+     * Returns the time in milliseconds until the circuit allows a probe request
+     *
+     * @return
+     */
+    public synchronized long getRemainingOpenTime() {
+        return failures < failureThreshold ? 0 : Math.max(0, openUntil - System.currentTimeMillis());
+    }
+
+    /**
+     * Records a failed request
+     */
+    public synchronized void recordFailure() {
+        failures++;
+        probing = false;
+        if (failures >= failureThreshold) {
+            openUntil = System.currentTimeMillis() + openTime;
+        }
+    }
+
+    /**
+     * Records a successful request
+     */
+    public synchronized void recordSuccess() {
+        failures = 0;
+        probing = false;
+        openUntil = 0;
+    }
+}
@@ -26,6 +26,10 @@ public abstract class InitialMessageManager {
      * Stop flag
      */
     private volatile boolean stop = false;
+    /**
+     * Poll task or null if not started
+     */
+    private ReceiveService.Registration registration;
 
     /**
      * Creates a new instance
@@ -45,30 +49,48 @@ public abstract class InitialMessageManager {
     /**
      * Stops the manager
      */
-    public void stop() {
+    public synchronized void stop() {
         this.stop = true;
+        if (this.registration != null) {
+            this.registration.cancel();
+        }
     }
 
     /**
-     * Start manager
+     * Starts the manager. Messages are retrieved by the shared receive service, the method returns immediately.
      */
-    public void start() {
-        while (!stop) {
+    public synchronized void start() {
+
+        // Check
+        if (stop || registration != null) {
+            return;
+        }
+
+        // Register
+        this.registration = ReceiveService.getDefault().register(getAccount(), checkInterval, () -> {
+
+            // Check
+            if (stop) {
+                return;
+            }
+
             // Update messages
             try {
                 actionUpdateMessage.accept(retrieveMessages());
             } catch (IllegalStateException e) {
-                this.stop = true;
+                stop();
                 actionError.accept(e);
             }
+        });
+    }
 
-            // Sleep
-            try {
-                Thread.sleep(checkInterval);
-            } catch (InterruptedException e) {
-                // Empty
-            }
-        }
+    /**
+     * Returns the identifier of the account polled, so that polls of the same account are serialized
+     *
+     * @return the identifier or null
+     */
+    protected String getAccount() {
+        return null;
     }
 
     /**
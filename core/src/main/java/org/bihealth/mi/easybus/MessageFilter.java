@@ -0,0 +1,41 @@
+package org.bihealth.mi.easybus;
+
+import java.util.Collection;
+
+/**
+ * Interface to filter relevant messages
+ *
+ * @author Felix Wirth
+ */
+public interface MessageFilter {
+
+    /**
+     * Checks whether a message is relevant
+     *
+     * @param messageDescription
+     * @return
+     */
+    boolean accepts(String messageDescription);
+
+    /**
+     * Checks whether a message with the given identifier has already been processed.
+     * Allows transports to drop duplicates before downloading them.
+     *
+     * @param messageID - identifier of the message or null if unknown
+     * @return
+     */
+    default boolean isDuplicate(String messageID) {
+        return false;
+    }
+
+    /**
+     * Returns the names of the scopes of relevant messages. Allows transports to narrow
+     * the search for messages on the server.
+     *
+     * @return the names or null if messages of any scope may be relevant
+     */
+    default Collection<String> getScopes() {
+        return null;
+    }
+
+}
@@ -1,5 +1,7 @@
 package org.bihealth.mi.easybus;
 
+import java.util.Base64;
+
 /**
  * An interface allowing the receiving of a message
  *
@@ -12,6 +14,14 @@ public interface MessageListener {
      */
     void receive(String message);
 
+    /**
+     * Can be implemented in order to receive a binary payload without text encoding.
+     * By default, the payload is passed on Base64 encoded.
+     */
+    default void receive(byte[] message) {
+        receive(Base64.getEncoder().encodeToString(message));
+    }
+
     /**
      * Needs to be implemented in order to process an error
      */
@@ -0,0 +1,574 @@
+package org.bihealth.mi.easybus;
+
+import de.tu_darmstadt.cbs.emailsmpc.UIDGenerator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A message manager for the bus implementations.
+ * Can be used to split larger messages into a series
+ * of smaller message fragments.
+ * <p>
+ * Fragments of incomplete messages are buffered in a bounded cache ordered by the
+ * last fragment received. Entries are removed as soon as the message has been built,
+ * dropped if no fragment has been received within the time to live and evicted least
+ * recently updated first if the memory budget is exceeded. The fragments of dropped
+ * messages are deleted from their source if the caller merges with deletion.
+ *
+ * @author Felix Wirth
+ * @author Fabian Prasser
+ */
+public class MessageManager {
+
+    /**
+     * Fragments of an incomplete message
+     *
+     * @author Fabian Prasser
+     */
+    private static class PendingMessage {
+
+        /**
+         * Fragments
+         */
+        private final BusMessageFragment[] fragments;
+        /**
+         * Time the last fragment was received
+         */
+        private long accessed;
+        /**
+         * Buffered bytes
+         */
+        private long size;
+        /**
+         * Whether the message has been dropped due to the time to live
+         */
+        private boolean expired;
+
+        /**
+         * Creates a new instance
+         *
+         * @param numberOfFragments
+         * @param accessed
+         */
+        private PendingMessage(int numberOfFragments, long accessed) {
+            this.fragments = new BusMessageFragment[numberOfFragments];
+            this.accessed = accessed;
+        }
+    }
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(MessageManager.class);
+    /**
+     * Message fragments in access order, guarded by this
+     */
+    private final LinkedHashMap<String, PendingMessage> messagesFragments;
+    /**
+     * Maximal size of a single message in byte
+     */
+    private final int maxMessageSize;
+    /**
+     * Maximal number of bytes buffered for incomplete messages
+     */
+    private final long memoryBudget;
+    /**
+     * Time to live of incomplete messages in milliseconds
+     */
+    private final long timeToLive;
+    /**
+     * Interval in milliseconds between checks for expired messages
+     */
+    private final long expiryInterval;
+    /**
+     * Time of the next check for expired messages, guarded by this
+     */
+    private long nextExpiry;
+    /**
+     * Performance listener or null
+     */
+    private volatile PerformanceListener listener = null;
+    /**
+     * Currently buffered bytes
+     */
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    /**
+     * Number of messages completed
+     */
+    private final AtomicLong completedMessages = new AtomicLong();
+    /**
+     * Number of incomplete messages evicted due to the memory budget
+     */
+    private final AtomicLong evictedMessages = new AtomicLong();
+    /**
+     * Number of incomplete messages dropped due to the time to live
+     */
+    private final AtomicLong expiredMessages = new AtomicLong();
+    /**
+     * Number of fragments dropped with incomplete messages
+     */
+    private final AtomicLong droppedFragments = new AtomicLong();
+
+    /**
+     * Creates a new instance
+     *
+     * @param maxMessageSize in bytes
+     */
+    public MessageManager(int maxMessageSize) {
+        this(maxMessageSize, Resources.FRAGMENT_CACHE_MEMORY_BUDGET, Resources.FRAGMENT_CACHE_TIME_TO_LIVE);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param maxMessageSize in bytes
+     * @param memoryBudget   maximal number of bytes buffered for incomplete messages
+     * @param timeToLive     time in milliseconds after which incomplete messages are dropped
+     */
+    public MessageManager(int maxMessageSize, long memoryBudget, long timeToLive) {
+
+        // Check
+        if (maxMessageSize <= 0 || memoryBudget <= 0 || timeToLive <= 0) {
+            throw new IllegalArgumentException("Message size, memory budget and time to live must be positive");
+        }
+
+        // Store and init
+        this.maxMessageSize = maxMessageSize;
+        this.memoryBudget = memoryBudget;
+        this.timeToLive = timeToLive;
+        this.expiryInterval = Math.min(timeToLive, Resources.FRAGMENT_CACHE_EXPIRY_INTERVAL);
+        this.nextExpiry = System.currentTimeMillis() + expiryInterval;
+        this.messagesFragments = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Sets a listener for the metrics of the fragment cache
+     *
+     * @param listener - or null
+     */
+    public void setPerformanceListener(PerformanceListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of bytes currently buffered for incomplete messages
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * @return the number of messages built from fragments
+     */
+    public long getCompletedMessages() {
+        return completedMessages.get();
+    }
+
+    /**
+     * @return the number of fragments dropped together with incomplete messages
+     */
+    public long getDroppedFragments() {
+        return droppedFragments.get();
+    }
+
+    /**
+     * @return the number of incomplete messages evicted due to the memory budget
+     */
+    public long getEvictedMessages() {
+        return evictedMessages.get();
+    }
+
+    /**
+     * @return the number of incomplete messages dropped due to the time to live
+     */
+    public long getExpiredMessages() {
+        return expiredMessages.get();
+    }
+
+    /**
+     * Returns whether fragments of the given message are currently buffered
+     *
+     * @param messageID
+     * @return
+     */
+    public synchronized boolean isPending(String messageID) {
+        return messagesFragments.containsKey(messageID);
+    }
+
+    /**
+     * @return the number of incomplete messages currently buffered
+     */
+    public synchronized int getPendingMessages() {
+        return messagesFragments.size();
+    }
+
+    /**
+     * Merges message fragments into a message and deletes the message from its source
+     *
+     * @param message
+     * @return A message or null if the parameter was a fragment and the message is not complete, yet.
+     * @throws BusException
+     */
+    public BusMessage mergeMessage(BusMessage message) throws BusException {
+        return mergeMessage(message, true);
+    }
+
+    /**
+     * Merges message fragments into a message. If deleteNow is set, fragments of incomplete
+     * messages dropped from the cache are deleted from their source as well.
+     *
+     * @param message
+     * @param deleteNow
+     * @return A message or null if the parameter was a fragment and the message is not complete, yet.
+     * @throws BusException
+     */
+    public BusMessage mergeMessage(BusMessage message, boolean deleteNow) throws BusException {
+
+        // Check if fragment
+        if (!(message instanceof BusMessageFragment)) {
+            if (deleteNow) {
+                message.delete();
+                message.expunge();
+            }
+            return message;
+        }
+
+        // Convert to fragment
+        BusMessageFragment messageFragment = (BusMessageFragment) message;
+
+        // Check integrity
+        if (!messageFragment.isValid()) {
+            throw new BusException(String.format("Checksum mismatch for fragment %d of message %s",
+                    messageFragment.getFragmentNumber(),
+                    messageFragment.getMessageID()));
+        }
+
+        // Add fragment and remove entry if complete
+        long now = System.currentTimeMillis();
+        List<PendingMessage> dropped = new ArrayList<>();
+        BusMessageFragment[] complete;
+        int pendingMessages;
+        synchronized (this) {
+
+            // Get or create, which moves the entry to the end of the access order
+            PendingMessage pending = this.messagesFragments.get(messageFragment.getMessageID());
+            if (pending == null) {
+                pending = new PendingMessage(messageFragment.getNumberOfFragments(), now);
+                this.messagesFragments.put(messageFragment.getMessageID(), pending);
+            }
+            pending.accessed = now;
+
+            // Check
+            if (messageFragment.getFragmentNumber() >= pending.fragments.length) {
+                throw new BusException(String.format("Index for number of messages %d for new fragment does not suit to total number of messages %d for message %s",
+                        messageFragment.getFragmentNumber(),
+                        pending.fragments.length,
+                        messageFragment.getMessageID()));
+            }
+
+            // Add to array and account
+            BusMessageFragment previous = pending.fragments[messageFragment.getFragmentNumber()];
+            long delta = messageFragment.getPayloadLength() - (previous == null ? 0 : previous.getPayloadLength());
+            pending.fragments[messageFragment.getFragmentNumber()] = messageFragment;
+            pending.size += delta;
+            bufferedBytes.addAndGet(delta);
+
+            // Remove if complete
+            if (messageComplete(pending.fragments)) {
+                this.messagesFragments.remove(messageFragment.getMessageID());
+                bufferedBytes.addAndGet(-pending.size);
+                completedMessages.incrementAndGet();
+                complete = pending.fragments;
+            } else {
+                complete = null;
+                evict(messageFragment.getMessageID(), dropped);
+            }
+
+            // Drop outdated messages
+            expire(now, dropped);
+            pendingMessages = messagesFragments.size();
+        }
+
+        // Report and delete dropped messages outside of the lock
+        dropped(dropped, deleteNow);
+        PerformanceListener listener = this.listener;
+        if (listener != null) {
+            listener.fragmentCacheChanged(pendingMessages, bufferedBytes.get());
+        }
+
+        // If message complete return or return null
+        return complete != null ? buildMessage(messageFragment.getMessageID(), complete, deleteNow) : null;
+    }
+
+    /**
+     * Splits a message into one or several MessageFragments. The payload, or the message
+     * encoded once, is compressed if worthwhile and cut into byte slices of at most
+     * maxMessageSize bytes. The fragments are views of one array, no slice is copied.
+     *
+     * @param message
+     * @return
+     * @throws IOException
+     */
+    public BusMessage[] splitMessage(BusMessage message) throws IOException {
+
+        // Encode once if not binary and compress if worthwhile
+        byte[] content = PayloadCompression.compress(message.getPayload());
+        int numberOfFragments = Math.max(1, (content.length + maxMessageSize - 1) / maxMessageSize);
+
+        // Create fragments from slices
+        String id = UIDGenerator.generateShortUID(10);
+        BusMessage[] result = new BusMessage[numberOfFragments];
+        for (int index = 0; index < numberOfFragments; index++) {
+            int from = index * maxMessageSize;
+            int to = Math.min(content.length, from + maxMessageSize);
+            result[index] = new BusMessageFragment(message.getReceiver(),
+                    message.getScope(),
+                    content,
+                    from,
+                    to - from,
+                    id,
+                    index,
+                    numberOfFragments,
+                    content.length,
+                    message.isBinary());
+        }
+
+        // Return
+        return result;
+    }
+
+    /**
+     * Builds a message object from all fragments
+     *
+     * @param messageId
+     * @param messageFragments
+     * @param deleteNow
+     * @return
+     * @throws BusException
+     */
+    private BusMessage buildMessage(String messageId, BusMessageFragment[] messageFragments, boolean deleteNow) throws BusException {
+
+        // Determine length
+        int length = messageFragments[0].getMessageLength();
+        if (length < 0) {
+            length = 0;
+            for (BusMessageFragment fragment : messageFragments) {
+                length += fragment.getPayloadLength();
+            }
+        }
+
+        // Skip the header of payloads stored as is, so that they need not be copied again
+        ByteBuffer first = messageFragments[0].getPayloadBuffer();
+        boolean stored = first.hasRemaining() && PayloadCompression.isStored(first.get(0));
+
+        // Copy slices into one preallocated buffer
+        ByteBuffer buffer = ByteBuffer.allocate(stored ? length - 1 : length);
+        for (BusMessageFragment fragment : messageFragments) {
+            ByteBuffer payload = fragment.getPayloadBuffer();
+            if (stored && fragment == messageFragments[0]) {
+                payload.position(1);
+            }
+            if (payload.remaining() > buffer.remaining()) {
+                throw new BusException(String.format("Fragments of message %s exceed the announced length of %d bytes", messageId, length));
+            }
+            buffer.put(payload);
+        }
+
+        // Check
+        if (buffer.hasRemaining()) {
+            throw new BusException(String.format("Fragments of message %s do not match the announced length of %d bytes", messageId, length));
+        }
+
+        // Decompress if needed
+        byte[] array;
+        if (stored) {
+            array = buffer.array();
+        } else {
+            try {
+                ByteBuffer content = PayloadCompression.decompress(buffer.array());
+                array = content.array();
+                if (content.arrayOffset() + content.position() != 0 || content.remaining() != array.length) {
+                    array = Arrays.copyOfRange(array, content.arrayOffset() + content.position(), content.arrayOffset() + content.limit());
+                }
+            } catch (IOException e) {
+                throw new BusException(String.format("Unable to decompress message %s", messageId), e);
+            }
+        }
+
+        // Create message, decoding text once
+        BusMessage message = messageFragments[0].isBinaryMessage() ?
+                new BusMessage(messageFragments[0].getReceiver(), messageFragments[0].getScope(), array) :
+                new BusMessage(messageFragments[0].getReceiver(), messageFragments[0].getScope(), new String(array, StandardCharsets.UTF_8));
+
+        // Delete
+        if (deleteNow) {
+            for (BusMessageFragment fragment : messageFragments) {
+                fragment.delete();
+            }
+            messageFragments[0].expunge();
+        }
+
+        // Return and overwrite delete function if not already deleted
+        if (deleteNow) {
+            return message;
+        } else {
+            return new BusMessage(message) {
+
+                /** SVUID */
+                private static final long serialVersionUID = 1642391047899201666L;
+
+                @Override
+                public void delete() throws BusException {
+                    // Deletes all messages
+                    for (BusMessageFragment fragment : messageFragments) {
+                        fragment.delete();
+                    }
+
+                    // Expunge
+                    messageFragments[0].expunge();
+                }
+            };
+        }
+    }
+
+    /**
+     * Evicts the least recently updated incomplete messages until the memory budget is met.
+     * Must be called while holding the lock.
+     *
+     * @param keep    - message which is not evicted
+     * @param dropped - collects the messages evicted
+     */
+    private void evict(String keep, List<PendingMessage> dropped) {
+
+        // Evict in access order
+        Iterator<Entry<String, PendingMessage>> iterator = messagesFragments.entrySet().iterator();
+        while (bufferedBytes.get() > memoryBudget && iterator.hasNext()) {
+            Entry<String, PendingMessage> entry = iterator.next();
+            if (!entry.getKey().equals(keep)) {
+                iterator.remove();
+                drop(entry.getValue(), false, dropped);
+                evictedMessages.incrementAndGet();
+                LOGGER.warn("Incomplete message {} evicted from fragment cache", entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Drops all incomplete messages exceeding the time to live. Runs at most once per
+     * expiry interval and stops at the first message within the time to live.
+     * Must be called while holding the lock.
+     *
+     * @param now
+     * @param dropped - collects the messages expired
+     */
+    private void expire(long now, List<PendingMessage> dropped) {
+
+        // Check
+        if (now < nextExpiry) {
+            return;
+        }
+        nextExpiry = now + expiryInterval;
+
+        // Expire in access order
+        Iterator<Entry<String, PendingMessage>> iterator = messagesFragments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<String, PendingMessage> entry = iterator.next();
+            if (now - entry.getValue().accessed <= timeToLive) {
+                break;
+            }
+            iterator.remove();
+            drop(entry.getValue(), true, dropped);
+            expiredMessages.incrementAndGet();
+            LOGGER.warn("Incomplete message {} expired in fragment cache", entry.getKey());
+        }
+    }
+
+    /**
+     * Accounts an incomplete message removed from the cache.
+     * Must be called while holding the lock.
+     *
+     * @param pending
+     * @param expired
+     * @param dropped - collects the message
+     */
+    private void drop(PendingMessage pending, boolean expired, List<PendingMessage> dropped) {
+        bufferedBytes.addAndGet(-pending.size);
+        pending.expired = expired;
+        dropped.add(pending);
+        for (BusMessageFragment fragment : pending.fragments) {
+            if (fragment != null) {
+                droppedFragments.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Reports incomplete messages dropped from the cache and deletes their fragments
+     * from the source, so that they are not received again
+     *
+     * @param dropped
+     * @param deleteNow
+     */
+    private void dropped(List<PendingMessage> dropped, boolean deleteNow) {
+        PerformanceListener listener = this.listener;
+        for (PendingMessage pending : dropped) {
+
+            // Collect
+            List<BusMessageFragment> fragments = new ArrayList<>();
+            for (BusMessageFragment fragment : pending.fragments) {
+                if (fragment != null) {
+                    fragments.add(fragment);
+                }
+            }
+
+            // Report
+            if (listener != null) {
+                listener.incompleteMessageDropped(fragments.size(), pending.expired);
+            }
+
+            // Delete
+            if (deleteNow && !fragments.isEmpty()) {
+                try {
+                    for (BusMessageFragment fragment : fragments) {
+                        fragment.delete();
+                    }
+                    fragments.get(0).expunge();
+                } catch (BusException e) {
+                    LOGGER.warn("Unable to delete fragments of dropped message", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Is a message complete?
+     *
+     * @param fragments
+     * @return
+     */
+    private boolean messageComplete(BusMessageFragment[] fragments) {
+
+        // Loop over array
+        for (int index = 0; index < fragments.length; index++) {
+            if (fragments[index] == null) {
+                return false;
+            }
+        }
+
+        // Finished
+        return true;
+    }
+}
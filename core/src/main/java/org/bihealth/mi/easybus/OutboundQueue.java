@@ -0,0 +1,136 @@
+package org.bihealth.mi.easybus;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds the number of messages waiting to be sent by a bus. If the queue is full,
+ * senders either wait or fail fast, depending on the backpressure strategy.
+ *
+ * @author Fabian Prasser
+ */
+public class OutboundQueue {
+
+    /**
+     * Behaviour if the queue is full
+     *
+     * @author Fabian Prasser
+     */
+    public enum Backpressure {
+        /** Wait until space is available */
+        BLOCK,
+        /** Reject the messages */
+        FAIL_FAST
+    }
+
+    /**
+     * Free slots
+     */
+    private final Semaphore slots;
+    /**
+     * Capacity
+     */
+    private final int capacity;
+    /**
+     * Backpressure strategy
+     */
+    private final Backpressure backpressure;
+
+    /**
+     * Creates a new instance
+     *
+     * @param capacity     maximal number of messages waiting to be sent
+     * @param backpressure behaviour if the queue is full
+     */
+    public OutboundQueue(int capacity, Backpressure backpressure) {
+
+        // Check
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (backpressure == null) {
+            throw new NullPointerException("Backpressure must not be null");
+        }
+
+        // Store
+        this.capacity = capacity;
+        this.backpressure = backpressure;
+        this.slots = new Semaphore(capacity, true);
+    }
+
+    /**
+     * Takes slots for the given number of messages. Batches larger than the capacity
+     * take the whole queue.
+     *
+     * @param messages
+     * @param listener - to report to or null
+     * @return the number of slots taken, to be passed to {@link #release(int, PerformanceListener)}
+     * @throws BusException if the queue is full and the strategy is to fail fast, or if interrupted while waiting
+     */
+    public int acquire(int messages, PerformanceListener listener) throws BusException {
+
+        // Prepare
+        int required = Math.min(messages, capacity);
+        long start = System.currentTimeMillis();
+
+        // Take
+        if (backpressure == Backpressure.FAIL_FAST) {
+            if (!slots.tryAcquire(required)) {
+                throw new BusException("Outbound queue is full");
+            }
+        } else {
+            try {
+                slots.acquire(required);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BusException("Interrupted while waiting for the outbound queue", e);
+            }
+        }
+
+        // Report
+        if (listener != null) {
+            listener.outboundQueueWaited(System.currentTimeMillis() - start);
+            listener.outboundQueueChanged(getDepth());
+        }
+
+        // Return
+        return required;
+    }
+
+    /**
+     * @return the backpressure strategy
+     */
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    /**
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of messages currently queued or in progress
+     */
+    public int getDepth() {
+        return capacity - slots.availablePermits();
+    }
+
+    /**
+     * Frees slots
+     *
+     * @param slots    - as returned by {@link #acquire(int, PerformanceListener)}
+     * @param listener - to report to or null
+     */
+    public void release(int slots, PerformanceListener listener) {
+
+        // Free
+        this.slots.release(slots);
+
+        // Report
+        if (listener != null) {
+            listener.outboundQueueChanged(getDepth());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.bihealth.mi.easybus;
 
-import android.util.Log;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.Serializable;
 import java.util.regex.Pattern;
@@ -16,6 +17,10 @@ public class Participant implements Serializable {
      * SVUID
      */
     private static final long serialVersionUID = 4218866719460664961L;
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(Participant.class);
 
     /**
      * Regex to check for a correct mail address
@@ -37,7 +42,7 @@ public class Participant implements Serializable {
      */
     public Participant(String name, String emailAddress) throws BusException {
         if (!isEmailValid(emailAddress)) {
-            Log.e("Error", "User name is not a valid e-mail address");
+            LOGGER.error("User name is not a valid e-mail address");
             throw new BusException("User name is not a valid e-mail address");
         }
         this.name = name;
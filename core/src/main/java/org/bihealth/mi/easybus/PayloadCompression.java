@@ -0,0 +1,230 @@
+package org.bihealth.mi.easybus;
+
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression stage of the bus. The entropy of a sample of the payload decides whether
+ * the payload is stored as is or deflated, and at which level. The choice is recorded
+ * in a header byte, so that payloads are compressed at most once.
+ *
+ * @author Fabian Prasser
+ */
+public class PayloadCompression {
+
+    /**
+     * Header flag: payload is stored as is
+     */
+    private static final byte FLAG_NONE = 0;
+    /**
+     * Header flag: payload is deflated
+     */
+    private static final byte FLAG_DEFLATE = 1;
+    /**
+     * First byte of GZIP streams
+     */
+    private static final int GZIP_MAGIC_FIRST = 0x1f;
+    /**
+     * Second byte of GZIP streams
+     */
+    private static final int GZIP_MAGIC_SECOND = 0x8b;
+
+    /**
+     * Compresses a payload if this is worthwhile and prepends the header
+     *
+     * @param data
+     * @return
+     */
+    public static byte[] compress(byte[] data) {
+
+        // Prepare output with room for the header and the payload as is
+        byte[] result = new byte[data.length + 1];
+
+        // Deflate into the output if worthwhile
+        int level = getLevel(data);
+        if (level != Deflater.NO_COMPRESSION) {
+            int length = deflate(data, level, result);
+            if (length >= 0) {
+                result[0] = FLAG_DEFLATE;
+                return Arrays.copyOf(result, length + 1);
+            }
+        }
+
+        // Store as is
+        result[0] = FLAG_NONE;
+        System.arraycopy(data, 0, result, 1, data.length);
+        return result;
+    }
+
+    /**
+     * Removes the header and decompresses a payload if needed. Payloads stored as is are
+     * not copied, the result is a view of the data following the header.
+     *
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    public static ByteBuffer decompress(byte[] data) throws IOException {
+
+        // Check
+        if (data.length == 0) {
+            throw new IOException("Payload header missing");
+        }
+
+        // Decode
+        switch (data[0]) {
+        case FLAG_NONE:
+            return ByteBuffer.wrap(data, 1, data.length - 1);
+        case FLAG_DEFLATE:
+            return ByteBuffer.wrap(inflate(data));
+        default:
+            throw new IOException("Unknown compression flag " + data[0]);
+        }
+    }
+
+    /**
+     * Returns whether the given header marks a payload stored as is
+     *
+     * @param header - first byte of the payload
+     * @return
+     */
+    public static boolean isStored(byte header) {
+        return header == FLAG_NONE;
+    }
+
+    /**
+     * Returns the entropy of a sample of the data in bits per byte
+     *
+     * @param data
+     * @return
+     */
+    public static double getEntropy(byte[] data) {
+
+        // Sample evenly distributed blocks
+        int[] histogram = new int[256];
+        int sampleSize = Math.min(data.length, Resources.COMPRESSION_SAMPLE_SIZE);
+        int blockSize = 64;
+        int blocks = Math.max(1, sampleSize / blockSize);
+        int stride = Math.max(blockSize, data.length / blocks);
+        int count = 0;
+        for (int block = 0; block < blocks; block++) {
+            int start = block * stride;
+            for (int index = start; index < Math.min(start + blockSize, data.length); index++) {
+                histogram[data[index] & 0xff]++;
+                count++;
+            }
+        }
+
+        // Calculate
+        double entropy = 0d;
+        for (int frequency : histogram) {
+            if (frequency > 0) {
+                double probability = (double) frequency / (double) count;
+                entropy -= probability * Math.log(probability) / Math.log(2d);
+            }
+        }
+
+        // Return
+        return entropy;
+    }
+
+    /**
+     * Returns whether the data is a GZIP stream, as written by previous versions
+     *
+     * @param data
+     * @return
+     */
+    public static boolean isGZIP(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xff) == GZIP_MAGIC_FIRST && (data[1] & 0xff) == GZIP_MAGIC_SECOND;
+    }
+
+    /**
+     * Deflates the data into the output following the header. Stops as soon as the
+     * deflated data is not smaller than the data.
+     *
+     * @param data
+     * @param level
+     * @param output - with room for the header and the data
+     * @return the length of the deflated data or -1 if it is not smaller than the data
+     */
+    private static int deflate(byte[] data, int level, byte[] output) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            int offset = 1;
+            while (!deflater.finished() && offset < output.length) {
+                offset += deflater.deflate(output, offset, output.length - offset);
+            }
+            return deflater.finished() && offset < output.length ? offset - 1 : -1;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Chooses the compression level based on size and entropy
+     *
+     * @param data
+     * @return
+     */
+    private static int getLevel(byte[] data) {
+
+        // Too small to gain anything
+        if (data.length < Resources.COMPRESSION_MIN_SIZE) {
+            return Deflater.NO_COMPRESSION;
+        }
+
+        // Choose by entropy
+        double entropy = getEntropy(data);
+        if (entropy >= Resources.COMPRESSION_ENTROPY_NONE) {
+            return Deflater.NO_COMPRESSION;
+        } else if (entropy >= Resources.COMPRESSION_ENTROPY_FAST) {
+            return Deflater.BEST_SPEED;
+        } else {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+    }
+
+    /**
+     * Inflates the data following the header
+     *
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, 1, data.length - 1);
+            ByteArrayOutputStream result = new ByteArrayOutputStream(data.length * 2);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed payload is truncated");
+                }
+                result.write(buffer, 0, length);
+            }
+            return result.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed payload is corrupted", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * No instances
+     */
+    private PayloadCompression() {
+        // Empty by design
+    }
+}
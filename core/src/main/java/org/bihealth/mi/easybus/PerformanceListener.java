@@ -0,0 +1,61 @@
+package org.bihealth.mi.easybus;
+
+/**
+ * Listener for performance indicators
+ *
+ * @author Fabian Prasser
+ */
+public interface PerformanceListener {
+
+    /**
+     * Message received
+     *
+     * @param size
+     */
+    void messageReceived(long size);
+
+    /**
+     * Message sent
+     *
+     * @param size
+     */
+    void messageSent(long size);
+
+    /**
+     * Number of messages queued or in progress for sending changed
+     *
+     * @param depth
+     */
+    default void outboundQueueChanged(int depth) {
+        // Empty by design
+    }
+
+    /**
+     * Time waited for space in the outbound queue
+     *
+     * @param millis
+     */
+    default void outboundQueueWaited(long millis) {
+        // Empty by design
+    }
+
+    /**
+     * Content of the cache for fragments of incomplete messages changed
+     *
+     * @param pendingMessages
+     * @param bufferedBytes
+     */
+    default void fragmentCacheChanged(int pendingMessages, long bufferedBytes) {
+        // Empty by design
+    }
+
+    /**
+     * Incomplete message dropped from the cache for fragments
+     *
+     * @param fragments - number of fragments dropped
+     * @param expired   - true if the time to live was exceeded, false if evicted due to the memory budget
+     */
+    default void incompleteMessageDropped(int fragments, boolean expired) {
+        // Empty by design
+    }
+}
@@ -0,0 +1,402 @@
+package org.bihealth.mi.easybus;
+
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls for messages on behalf of all buses with a fixed number of threads. Each transport
+ * registers a poll task with its own interval. Ticks of a task arriving while it is waiting
+ * or running are coalesced into one poll, and polls of the same account are performed one
+ * at a time.
+ *
+ * @author Fabian Prasser
+ */
+public class ReceiveService {
+
+    /**
+     * Task polling for messages
+     *
+     * @author Fabian Prasser
+     */
+    public interface Poll {
+
+        /**
+         * Polls for messages
+         *
+         * @throws Exception
+         */
+        void poll() throws Exception;
+    }
+
+    /**
+     * A poll task registered with the service
+     *
+     * @author Fabian Prasser
+     */
+    public class Registration {
+
+        /**
+         * Account
+         */
+        private final Account account;
+        /**
+         * Task
+         */
+        private final Poll poll;
+        /**
+         * Whether the task is queued for its account
+         */
+        private final AtomicBoolean queued = new AtomicBoolean(false);
+        /**
+         * Interval in milliseconds
+         */
+        private volatile long interval;
+        /**
+         * Cancel flag
+         */
+        private volatile boolean cancelled = false;
+        /**
+         * Pause flag
+         */
+        private volatile boolean paused = false;
+        /**
+         * Next tick
+         */
+        private ScheduledFuture<?> next;
+
+        /**
+         * Creates a new instance
+         *
+         * @param account
+         * @param poll
+         * @param interval
+         */
+        private Registration(Account account, Poll poll, long interval) {
+            this.account = account;
+            this.poll = poll;
+            this.interval = interval;
+        }
+
+        /**
+         * Cancels the task. A poll currently running is completed.
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (next != null) {
+                    next.cancel(false);
+                }
+            }
+            unregister(account);
+        }
+
+        /**
+         * @return the interval in milliseconds
+         */
+        public long getInterval() {
+            return interval;
+        }
+
+        /**
+         * @return whether the task has not been cancelled
+         */
+        public boolean isActive() {
+            return !cancelled;
+        }
+
+        /**
+         * @return whether polling is paused
+         */
+        public boolean isPaused() {
+            return paused;
+        }
+
+        /**
+         * Pauses polling until the interval is set or a poll is triggered. A poll currently running is completed.
+         */
+        public synchronized void pause() {
+            paused = true;
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
+
+        /**
+         * Sets the interval and resumes polling. If the next tick is due later than the new interval,
+         * it is brought forward.
+         *
+         * @param interval in milliseconds
+         */
+        public void setInterval(long interval) {
+
+            // Check
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Interval must be positive");
+            }
+
+            // Store and reschedule
+            this.interval = interval;
+            this.paused = false;
+            schedule(interval);
+        }
+
+        /**
+         * Resumes polling and polls as soon as possible
+         */
+        public void trigger() {
+            this.paused = false;
+            schedule(0);
+        }
+
+        /**
+         * Queues the task for its account
+         */
+        private void tick() {
+            if (!cancelled && queued.compareAndSet(false, true)) {
+                account.queue.add(this);
+                drain(account);
+            }
+        }
+
+        /**
+         * Performs the task and schedules the next tick
+         */
+        private void run() {
+
+            // Ticks from now on lead to a further poll
+            queued.set(false);
+            if (cancelled) {
+                return;
+            }
+
+            // Poll
+            try {
+                poll.poll();
+            } catch (Exception e) {
+                LOGGER.error("Unable to poll for messages", e);
+            }
+
+            // Schedule
+            schedule(interval);
+        }
+
+        /**
+         * Schedules the next tick unless a tick is due earlier
+         *
+         * @param delay
+         */
+        private synchronized void schedule(long delay) {
+
+            // Check
+            if (cancelled || paused) {
+                return;
+            }
+            if (next != null && !next.isDone()) {
+                if (next.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                    return;
+                }
+                next.cancel(false);
+            }
+
+            // Schedule
+            try {
+                next = executor.schedule(this::tick, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Poll not scheduled as the service has been stopped", e);
+            }
+        }
+    }
+
+    /**
+     * Poll tasks of one account
+     *
+     * @author Fabian Prasser
+     */
+    private static class Account {
+
+        /**
+         * Identifier
+         */
+        private final String id;
+        /**
+         * Tasks waiting to be performed
+         */
+        private final Queue<Registration> queue = new ConcurrentLinkedQueue<>();
+        /**
+         * Whether tasks are being performed
+         */
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        /**
+         * Number of registered tasks
+         */
+        private final AtomicInteger registrations = new AtomicInteger(0);
+
+        /**
+         * Creates a new instance
+         *
+         * @param id
+         */
+        private Account(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(ReceiveService.class);
+    /**
+     * Service shared within the process
+     */
+    private static ReceiveService defaultService;
+
+    /**
+     * Threads
+     */
+    private final ScheduledExecutorService executor;
+    /**
+     * Accounts by identifier
+     */
+    private final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new instance
+     *
+     * @param size number of threads
+     */
+    public ReceiveService(int size) {
+
+        // Check
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive");
+        }
+
+        // Create threads
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(size, runnable -> {
+            Thread thread = new Thread(runnable, "EasyBus-Receive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the service shared within the process
+     *
+     * @return
+     */
+    public static synchronized ReceiveService getDefault() {
+        if (defaultService == null) {
+            defaultService = new ReceiveService(Resources.SIZE_RECEIVE_SERVICE);
+        }
+        return defaultService;
+    }
+
+    /**
+     * Registers a poll task. The first poll is performed immediately.
+     *
+     * @param account  identifier of the account polled, e.g., the mailbox. Tasks of the same account
+     *                 are performed one at a time. If null, the task is not serialized with other tasks.
+     * @param interval milliseconds between the end of a poll and the start of the next one
+     * @param poll     task
+     * @return the registration
+     */
+    public Registration register(String account, long interval, Poll poll) {
+
+        // Check
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        if (poll == null) {
+            throw new NullPointerException("Poll must not be null");
+        }
+
+        // Register with account
+        Account result;
+        if (account == null) {
+            result = new Account(null);
+            result.registrations.incrementAndGet();
+        } else {
+            result = accounts.compute(account, (key, value) -> {
+                Account existing = value != null ? value : new Account(key);
+                existing.registrations.incrementAndGet();
+                return existing;
+            });
+        }
+
+        // Start
+        Registration registration = new Registration(result, poll, interval);
+        registration.trigger();
+        return registration;
+    }
+
+    /**
+     * Stops the service
+     */
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Performs the tasks waiting for an account one at a time
+     *
+     * @param account
+     */
+    private void drain(Account account) {
+
+        // Check
+        if (!account.draining.compareAndSet(false, true)) {
+            return;
+        }
+
+        // Perform
+        try {
+            executor.execute(() -> {
+                Registration registration;
+                while ((registration = account.queue.poll()) != null) {
+                    registration.run();
+                }
+
+                // Release and check for tasks queued in the meantime
+                account.draining.set(false);
+                if (!account.queue.isEmpty()) {
+                    drain(account);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            account.draining.set(false);
+            LOGGER.debug("Poll not performed as the service has been stopped", e);
+        }
+    }
+
+    /**
+     * Removes a task from its account and forgets accounts without tasks
+     *
+     * @param account
+     */
+    private void unregister(Account account) {
+        if (account.id == null) {
+            return;
+        }
+        accounts.computeIfPresent(account.id, (key, value) ->
+                value == account && value.registrations.decrementAndGet() <= 0 ? null : value);
+    }
+}
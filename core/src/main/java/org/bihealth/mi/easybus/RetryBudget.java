@@ -0,0 +1,119 @@
+package org.bihealth.mi.easybus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limits the rate of retries per destination with a token bucket, so that an
+ * unreachable destination can not cause a retry storm
+ *
+ * @author Fabian Prasser
+ */
+public class RetryBudget {
+
+    /**
+     * Token bucket of a destination
+     *
+     * @author Fabian Prasser
+     */
+    private static class Bucket {
+
+        /**
+         * Available tokens
+         */
+        private double tokens;
+        /**
+         * Time of last refill
+         */
+        private long refilled;
+
+        /**
+         * Creates a new instance
+         *
+         * @param tokens
+         * @param refilled
+         */
+        private Bucket(double tokens, long refilled) {
+            this.tokens = tokens;
+            this.refilled = refilled;
+        }
+    }
+
+    /**
+     * Buckets per destination
+     */
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    /**
+     * Maximal number of tokens per destination
+     */
+    private final int capacity;
+    /**
+     * Time in milliseconds to refill one token
+     */
+    private final long refillTime;
+
+    /**
+     * Creates a new instance
+     *
+     * @param capacity   maximal number of retries in a burst per destination
+     * @param refillTime time in milliseconds after which one further retry is allowed
+     */
+    public RetryBudget(int capacity, long refillTime) {
+
+        // Check
+        if (capacity <= 0 || refillTime <= 0) {
+            throw new IllegalArgumentException("Capacity and refill time must be positive");
+        }
+
+        // Store
+        this.capacity = capacity;
+        this.refillTime = refillTime;
+    }
+
+    /**
+     * Tries to take a retry from the budget of the destination
+     *
+     * @param destination
+     * @return whether a retry is allowed
+     */
+    public boolean tryAcquire(String destination) {
+
+        // Prepare
+        long now = System.currentTimeMillis();
+        Bucket bucket = buckets.computeIfAbsent(destination, key -> new Bucket(capacity, now));
+
+        synchronized (bucket) {
+
+            // Refill
+            bucket.tokens = Math.min(capacity, bucket.tokens + (double) (now - bucket.refilled) / (double) refillTime);
+            bucket.refilled = now;
+
+            // Take
+            if (bucket.tokens >= 1d) {
+                bucket.tokens -= 1d;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the time until a retry is available in the budget of the destination
+     *
+     * @param destination
+     * @return wait time in milliseconds
+     */
+    public long getWaitTime(String destination) {
+
+        // Prepare
+        Bucket bucket = buckets.get(destination);
+        if (bucket == null) {
+            return 0;
+        }
+
+        synchronized (bucket) {
+            double tokens = Math.min(capacity, bucket.tokens + (double) (System.currentTimeMillis() - bucket.refilled) / (double) refillTime);
+            return tokens >= 1d ? 0 : (long) Math.ceil((1d - tokens) * refillTime);
+        }
+    }
+}
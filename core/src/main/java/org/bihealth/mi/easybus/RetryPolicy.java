@@ -0,0 +1,79 @@
+package org.bihealth.mi.easybus;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Policy for retrying failed operations with exponential backoff and full jitter
+ *
+ * @author Fabian Prasser
+ */
+public class RetryPolicy {
+
+    /**
+     * Number of retries to retry until the operation is given up otherwise, e.g., because the bus is stopped
+     */
+    public static final int UNLIMITED = -1;
+
+    /**
+     * Maximal number of retries or UNLIMITED
+     */
+    private final int maxRetries;
+    /**
+     * Wait time before the first retry in milliseconds
+     */
+    private final long baseWaitTime;
+    /**
+     * Maximal wait time between retries in milliseconds
+     */
+    private final long maxWaitTime;
+
+    /**
+     * Creates a new instance
+     *
+     * @param maxRetries   or UNLIMITED
+     * @param baseWaitTime in milliseconds
+     * @param maxWaitTime  in milliseconds
+     */
+    public RetryPolicy(int maxRetries, long baseWaitTime, long maxWaitTime) {
+
+        // Check
+        if (maxRetries < UNLIMITED || baseWaitTime <= 0 || maxWaitTime < baseWaitTime) {
+            throw new IllegalArgumentException("Retries must not be negative and wait times must be positive");
+        }
+
+        // Store
+        this.maxRetries = maxRetries;
+        this.baseWaitTime = baseWaitTime;
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    /**
+     * Returns the time to wait before the given retry. The time is drawn uniformly
+     * from zero to the exponentially growing, capped backoff, so that clients failing
+     * at the same time do not retry at the same time.
+     *
+     * @param retry - number of the retry starting with 0
+     * @return wait time in milliseconds
+     */
+    public long getWaitTime(int retry) {
+        long backoff = Math.min(maxWaitTime, baseWaitTime << Math.min(retry, 30));
+        return ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+
+    /**
+     * Returns whether no further retry is allowed
+     *
+     * @param retry - number of the retry starting with 0
+     * @return
+     */
+    public boolean isExhausted(int retry) {
+        return maxRetries != UNLIMITED && retry >= maxRetries;
+    }
+
+    /**
+     * @return the maximal number of retries or UNLIMITED
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+}
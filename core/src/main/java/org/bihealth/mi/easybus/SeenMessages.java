@@ -0,0 +1,187 @@
+package org.bihealth.mi.easybus;
+
+import com.carrotsearch.hppc.LongOpenHashSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A bounded set of identifiers of messages which have already been processed.
+ * Identifiers are stored as 64-bit hashes. If the capacity is exceeded, the oldest
+ * identifiers are forgotten first. The set can optionally be persisted to a file.
+ *
+ * @author Fabian Prasser
+ */
+public class SeenMessages {
+
+    /**
+     * Hashes in order of insertion
+     */
+    private final long[] ring;
+    /**
+     * Hashes for lookup
+     */
+    private final LongOpenHashSet hashes;
+    /**
+     * File or null
+     */
+    private final File file;
+    /**
+     * Next position in ring
+     */
+    private int position;
+    /**
+     * Number of hashes stored
+     */
+    private int size;
+    /**
+     * Changed since last persisted
+     */
+    private boolean dirty;
+
+    /**
+     * Creates a new in-memory instance
+     *
+     * @param capacity
+     */
+    public SeenMessages(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates a new instance persisted to the given file. Existing content is loaded.
+     *
+     * @param capacity
+     * @param file
+     */
+    public SeenMessages(int capacity, File file) {
+
+        // Check
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+
+        // Store and init
+        this.ring = new long[capacity];
+        this.hashes = new LongOpenHashSet(capacity);
+        this.file = file;
+
+        // Load
+        if (file != null && file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                int count = in.readInt();
+                for (int index = 0; index < count; index++) {
+                    add(in.readLong());
+                }
+            } catch (IOException e) {
+                // Start with what has been read so far
+            }
+            this.dirty = false;
+        }
+    }
+
+    /**
+     * Returns whether a message with the given identifier has been seen
+     *
+     * @param id
+     * @return
+     */
+    public synchronized boolean contains(String id) {
+        return id != null && hashes.contains(hash(id));
+    }
+
+    /**
+     * Marks a message as seen
+     *
+     * @param id
+     * @return whether the message has not been seen before
+     */
+    public synchronized boolean add(String id) {
+        return id != null && add(hash(id));
+    }
+
+    /**
+     * Writes the set to its file if it has changed
+     *
+     * @throws IOException
+     */
+    public synchronized void persist() throws IOException {
+
+        // Check
+        if (file == null || !dirty) {
+            return;
+        }
+
+        // Write to temporary file
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(size);
+            int start = size < ring.length ? 0 : position;
+            for (int index = 0; index < size; index++) {
+                out.writeLong(ring[(start + index) % ring.length]);
+            }
+        }
+
+        // Replace
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    /**
+     * @return the number of identifiers stored
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds a hash and forgets the oldest one if needed
+     *
+     * @param hash
+     * @return
+     */
+    private boolean add(long hash) {
+
+        // Check
+        if (hashes.contains(hash)) {
+            return false;
+        }
+
+        // Forget oldest
+        if (size == ring.length) {
+            hashes.remove(ring[position]);
+        } else {
+            size++;
+        }
+
+        // Store
+        ring[position] = hash;
+        position = (position + 1) % ring.length;
+        hashes.add(hash);
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * 64-bit FNV-1a hash
+     *
+     * @param id
+     * @return
+     */
+    private static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int index = 0; index < id.length(); index++) {
+            hash ^= id.charAt(index);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
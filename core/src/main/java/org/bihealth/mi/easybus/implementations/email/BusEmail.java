@@ -0,0 +1,430 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bihealth.mi.easybus.implementations.email;
+
+import org.bihealth.mi.easybus.AdaptivePolling;
+import org.bihealth.mi.easybus.Bus;
+import org.bihealth.mi.easybus.BusException;
+import org.bihealth.mi.easybus.BusMessage;
+import org.bihealth.mi.easybus.BusMessageFragment;
+import org.bihealth.mi.easybus.MessageFilter;
+import org.bihealth.mi.easybus.MessageManager;
+import org.bihealth.mi.easybus.PerformanceListener;
+import org.bihealth.mi.easybus.ReceiveService;
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Bus implementation by email
+ *
+ * @author Felix Wirth
+ * @author Fabian Prasser
+ */
+public class BusEmail extends Bus {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(BusEmail.class);
+    /**
+     * Connection
+     */
+    private final ConnectionEmail connection;
+    /**
+     * Poll task
+     */
+    private final ReceiveService.Registration registration;
+    /**
+     * Whether changes are pushed by the server, so that polling is reduced. Only accessed by polls.
+     */
+    private boolean push = false;
+    /**
+     * Number of consecutive failures to wait for changes pushed by the server. Only accessed by polls.
+     */
+    private int pushFailures = 0;
+    /**
+     * Whether a poll is in progress
+     */
+    private volatile boolean receiving = false;
+    /**
+     * Interval in milliseconds in which messages are polled without push
+     */
+    private final int millis;
+    /**
+     * Stop flag
+     */
+    private volatile boolean stop = false;
+    /**
+     * Message manager
+     */
+    private final MessageManager messageManager;
+
+    /**
+     * Creates a new instance
+     *
+     * @param connection
+     * @param millis     - interval in milliseconds in which messages are polled. If zero a send only bus is returned
+     */
+    public BusEmail(ConnectionEmail connection, int millis) {
+        this(connection, millis, Resources.SIZE_THREADPOOL);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param connection
+     * @param millis
+     * @param sizeThreadpool
+     */
+    public BusEmail(ConnectionEmail connection, int millis, int sizeThreadpool) {
+        this(connection, millis, sizeThreadpool, Resources.EMAIL_MAX_MESSAGE_SIZE_DEFAULT);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param connection
+     * @param millis
+     * @param sizeThreadpool
+     * @param maxMessageSize
+     */
+    public BusEmail(ConnectionEmail connection, int millis, int sizeThreadpool, int maxMessageSize) {
+
+        // Super
+        super(sizeThreadpool);
+
+        // Store and start
+        this.connection = connection;
+        this.messageManager = new MessageManager(maxMessageSize);
+        this.millis = millis;
+        setPerformanceListener(connection.getPerformanceListener());
+        this.registration = registerReceiving(millis);
+    }
+
+    /**
+     * Creates a new instance sending on a shared executor
+     *
+     * @param connection
+     * @param millis
+     * @param executor
+     * @param maxMessageSize
+     */
+    public BusEmail(ConnectionEmail connection, int millis, ExecutorService executor, int maxMessageSize) {
+
+        // Super
+        super(executor);
+
+        // Store and start
+        this.connection = connection;
+        this.messageManager = new MessageManager(maxMessageSize);
+        this.millis = millis;
+        setPerformanceListener(connection.getPerformanceListener());
+        this.registration = registerReceiving(millis);
+    }
+
+    /**
+     * Registers polling for e-mails with the shared receive service
+     *
+     * @param millis
+     * @return
+     */
+    private ReceiveService.Registration registerReceiving(int millis) {
+
+        // Check
+        if (millis <= 0) {
+            throw new IllegalArgumentException("millis must be a positive number");
+        }
+
+        // Register
+        ReceiveService.Registration registration = ReceiveService.getDefault().register(connection.getAccount(), millis, () -> {
+            try {
+                pollCompleted(receiveEmails());
+                updatePush();
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+        });
+
+        // Adapt interval to the messages expected
+        setPolling(new AdaptivePolling(registration, Resources.INTERVAL_POLL_MIN, millis));
+        return registration;
+    }
+
+    /**
+     * Starts or resumes waiting for changes pushed by the server, e.g., with IMAP IDLE, after a poll.
+     * While changes are pushed, each change triggers a poll and regular polling is reduced to a safety net.
+     * Waiting does not block a thread of its own. If the server does not support pushing changes or
+     * waiting fails repeatedly, regular polling is used.
+     */
+    private void updatePush() {
+
+        // Check
+        if (stop || pushFailures >= Resources.IMAP_IDLE_MAX_FAILURES) {
+            return;
+        }
+
+        // Start waiting, if not resumed by the connection
+        boolean watching = connection.isWatching();
+        if (!watching) {
+            try {
+                watching = connection.watch(() -> {
+                    if (!stop) {
+                        registration.trigger();
+                    }
+                });
+                if (watching) {
+                    pushFailures = 0;
+                } else {
+                    LOGGER.info("Mail server does not support IMAP IDLE, polling for messages");
+                    pushFailures = Resources.IMAP_IDLE_MAX_FAILURES;
+                }
+            } catch (BusException e) {
+                if (++pushFailures >= Resources.IMAP_IDLE_MAX_FAILURES) {
+                    LOGGER.info("IMAP IDLE failed repeatedly, polling for messages", e);
+                    connection.unwatch();
+                } else {
+                    LOGGER.debug("IMAP IDLE failed, retrying with next poll", e);
+                }
+            }
+        }
+
+        // Reduce polling while changes are pushed and resume it otherwise
+        if (watching != push) {
+            push = watching;
+            if (push) {
+                long interval = Math.max(millis, Resources.INTERVAL_POLL_IDLE);
+                setPolling(new AdaptivePolling(registration, interval, interval));
+            } else {
+                setPolling(new AdaptivePolling(registration, Resources.INTERVAL_POLL_MIN, millis));
+                registration.trigger();
+            }
+        }
+    }
+
+    @Override
+    public boolean isAlive() {
+        return this.registration != null && this.registration.isActive();
+    }
+
+    /**
+     * Deletes all e-mails matching the message filter
+     *
+     * @throws BusException
+     * @throws InterruptedException
+     */
+    @Override
+    public void purge(MessageFilter filter) throws BusException, InterruptedException {
+        // Select by metadata only, without downloading attachments
+        connection.purge(filter);
+    }
+
+
+    @Override
+    public void warmUp() throws BusException {
+        connection.warmUp();
+    }
+
+    @Override
+    public void setPerformanceListener(PerformanceListener performanceListener) {
+        super.setPerformanceListener(performanceListener);
+        messageManager.setPerformanceListener(performanceListener);
+    }
+
+    @Override
+    protected Void sendInternal(BusMessage message) throws BusException {
+
+        // Send message in fragments
+        try {
+            for (BusMessage m : messageManager.splitMessage(message)) {
+                this.connection.send(m);
+            }
+        } catch (IOException | BusException e) {
+            throw new BusException("Unable to send message", e);
+        }
+
+        // Return
+        return null;
+    }
+
+    @Override
+    protected Exception[] sendInternal(List<BusMessage> messages) {
+
+        // Prepare
+        Exception[] result = new Exception[messages.size()];
+        List<BusMessage> fragments = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+
+        // Split all messages
+        for (int index = 0; index < messages.size(); index++) {
+            try {
+                for (BusMessage m : messageManager.splitMessage(messages.get(index))) {
+                    fragments.add(m);
+                    owners.add(index);
+                }
+            } catch (IOException e) {
+                result[index] = new BusException("Unable to send message", e);
+            }
+        }
+
+        // Send fragments in one session and assign errors to messages
+        BusException[] errors = this.connection.send(fragments);
+        for (int index = 0; index < errors.length; index++) {
+            if (errors[index] != null && result[owners.get(index)] == null) {
+                result[owners.get(index)] = new BusException("Unable to send message", errors[index]);
+            }
+        }
+
+        // Return
+        return result;
+    }
+
+    /**
+     * Sets the file in which the connection persists the state of the synchronization with the mailbox
+     *
+     * @param file
+     */
+    public void setStateFile(File file) {
+        this.connection.setStateFile(file);
+    }
+
+    @Override
+    public void stop() {
+
+        // Set stop flag
+        this.stop = true;
+
+        // Shutdown executor
+        shutdownExecutor();
+
+        // Stop polling. A poll in progress ends after the current message.
+        if (this.registration != null) {
+            this.registration.cancel();
+        }
+
+        // Stop waiting for changes
+        connection.unwatch();
+
+        // Close connection kept open across polls, unless a poll in progress closes it when done
+        if (!receiving) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Receives e-mails
+     *
+     * @return the number of complete messages received
+     * @throws InterruptedException
+     */
+    private synchronized int receiveEmails() throws InterruptedException {
+
+        // Prepare
+        int received = 0;
+
+        // Create filter for relevant messages
+        MessageFilter filter = new MessageFilter() {
+            @Override
+            public boolean accepts(String messageDescription) {
+                // Check if participant and scope is registered
+                return isParticipantScopeRegistered(ConnectionEmail.getScope(messageDescription),
+                        ConnectionEmail.getParticipant(messageDescription));
+            }
+
+            @Override
+            public boolean isDuplicate(String messageID) {
+                return isSeen(messageID);
+            }
+
+            @Override
+            public Collection<String> getScopes() {
+                return getSubscribedScopes();
+            }
+        };
+
+        // Mark poll in progress
+        receiving = true;
+        if (stop) {
+            receiving = false;
+            connection.close();
+            throw new InterruptedException();
+        }
+
+        try {
+            // Get mails
+            for (BusMessage message : connection.receive(filter)) {
+
+                // Check for stop or interrupt
+                if (stop || Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                // Drop duplicates of messages already processed
+                if (isSeen(message)) {
+                    deleteDuplicate(message);
+                    continue;
+                }
+
+                // Process with message manager
+                BusMessage messageComplete = messageManager.mergeMessage(message);
+
+                // Send to scope and participant
+                if (messageComplete != null) {
+                    markSeen(((BusMessageFragment) message).getMessageID());
+                    receiveInternal(messageComplete);
+                    received++;
+                }
+            }
+        } catch (BusException e) {
+            // Pass error over
+            this.receiveErrorInternal(e);
+        } finally {
+            // Delete processed messages at once and remember them. The connection is kept open for the next poll.
+            connection.flushDeletions();
+            persistSeen();
+
+            // Close the connection if the bus has been stopped during the poll
+            receiving = false;
+            if (stop) {
+                connection.close();
+            }
+        }
+
+        // Return
+        return received;
+    }
+
+    /**
+     * Deletes a duplicate message from the mailbox. Errors are ignored, since
+     * deletion is retried when the duplicate is listed again.
+     *
+     * @param message
+     */
+    private void deleteDuplicate(BusMessage message) {
+        try {
+            message.delete();
+            message.expunge();
+        } catch (BusException e) {
+            LOGGER.debug("Unable to delete duplicate message", e);
+        }
+    }
+}
\ No newline at end of file
@@ -18,6 +18,7 @@ import org.bihealth.mi.easybus.BusMessage;
 import org.bihealth.mi.easybus.BusMessageFragment;
 import org.bihealth.mi.easybus.MessageFilter;
 import org.bihealth.mi.easybus.Participant;
+import org.bihealth.mi.easybus.PayloadCompression;
 import org.bihealth.mi.easybus.PerformanceListener;
 import org.bihealth.mi.easybus.Scope;
 
@@ -27,6 +28,7 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -65,6 +67,10 @@ public abstract class ConnectionEmail {
      * String indicating start of scope
      */
     public static final String SCOPE_NAME_START_TAG = "BEGIN_NAME_SCOPE";
+    /**
+     * Header carrying the identifier of the message a fragment belongs to
+     */
+    public static final String HEADER_MESSAGE_ID = "X-EasySMPC-Message-ID";
     /**
      * String indicating end of scope
      */
@@ -113,6 +119,10 @@ public abstract class ConnectionEmail {
      * Sending user name
      */
     private final String sendingUserName;
+    /**
+     * Messages to delete when deletions are flushed
+     */
+    private final List<ConnectionEmailMessage> deletions = new ArrayList<>();
     /**
      * Creates a new instance with same mail address to receive and to send
      *
@@ -254,6 +264,62 @@ public abstract class ConnectionEmail {
      */
     protected abstract void close();
 
+    /**
+     * Opens and authenticates the connection ahead of time
+     *
+     * @throws BusException
+     */
+    protected void warmUp() throws BusException {
+        // Empty by design
+    }
+
+    /**
+     * Returns whether changes of the mailbox are currently pushed to the listener passed to {@link #watch(Runnable)}
+     *
+     * @return
+     */
+    protected boolean isWatching() {
+        return false;
+    }
+
+    /**
+     * Starts to push changes of the mailbox to the listener, e.g., with IMAP IDLE. Waiting for changes
+     * does not block a thread of its own and is resumed whenever the connection has been used.
+     *
+     * @param listener
+     * @return whether the server supports pushing changes
+     * @throws BusException if the server supports pushing changes but waiting failed
+     */
+    protected boolean watch(Runnable listener) throws BusException {
+        return false;
+    }
+
+    /**
+     * Stops to push changes of the mailbox
+     */
+    protected void unwatch() {
+        // Empty by default
+    }
+
+    /**
+     * Sets a file in which the connection may persist its state, e.g., to avoid examining
+     * the whole mailbox after a restart
+     *
+     * @param file
+     */
+    protected void setStateFile(File file) {
+        // Empty by default
+    }
+
+    /**
+     * Returns the identifier of the mailbox polled, so that polls of the same mailbox can be serialized
+     *
+     * @return
+     */
+    protected String getAccount() {
+        return "email:" + getReceivingUserName();
+    }
+
     /**
      * Returns the associated email address for sending
      *
@@ -281,6 +347,15 @@ public abstract class ConnectionEmail {
         return this.sendingEmailAddress;
     }
 
+    /**
+     * Returns the performance listener
+     *
+     * @return the listener or null
+     */
+    protected PerformanceListener getPerformanceListener() {
+        return listener;
+    }
+
     /**
      * Returns the user name for sending
      *
@@ -300,6 +375,81 @@ public abstract class ConnectionEmail {
      */
     protected abstract List<ConnectionEmailMessage> list(MessageFilter filter) throws BusException, InterruptedException;
 
+    /**
+     * Deletes the given messages on the server and expunges them. By default, messages are
+     * flagged one by one and the folder is expunged once.
+     *
+     * @param messages
+     */
+    protected void delete(List<ConnectionEmailMessage> messages) {
+
+        // Flag
+        jakarta.mail.Folder folder = null;
+        for (ConnectionEmailMessage message : messages) {
+            try {
+                message.getMessage().setFlag(Flag.DELETED, true);
+                folder = message.getMessage().getFolder();
+            } catch (MessagingException e) {
+                LOGGER.debug("Delete failed logged", new Date(), "delete failed", ExceptionUtils.getStackTrace(e));
+                // Ignore, as this may be a result of non-transactional properties of the IMAP protocol
+            }
+        }
+
+        // Expunge
+        try {
+            if (folder != null && folder.isOpen()) {
+                folder.expunge();
+            }
+        } catch (MessagingException e) {
+            LOGGER.debug("Expunge failed logged", new Date(), "expunge failed", ExceptionUtils.getStackTrace(e));
+            // Ignore, as this may be a result of non-transactional properties of the IMAP protocol
+        }
+    }
+
+    /**
+     * Deletes all messages queued for deletion since the last call, so that a poll costs
+     * one round of deletions instead of one per message. Messages not deleted are received
+     * again and deleted as duplicates.
+     */
+    protected void flushDeletions() {
+
+        // Take
+        List<ConnectionEmailMessage> messages;
+        synchronized (deletions) {
+            if (deletions.isEmpty()) {
+                return;
+            }
+            messages = new ArrayList<>(deletions);
+            deletions.clear();
+        }
+
+        // Delete
+        delete(messages);
+    }
+
+    /**
+     * Deletes all relevant e-mails. By default, the e-mails are received and deleted one by one.
+     * Implementations should select e-mails by their metadata only.
+     *
+     * @param filter
+     * @return the number of e-mails deleted
+     * @throws BusException
+     * @throws InterruptedException
+     */
+    protected int purge(MessageFilter filter) throws BusException, InterruptedException {
+
+        // Delete
+        int result = 0;
+        for (BusMessage message : receive(filter)) {
+            message.delete();
+            result++;
+        }
+        flushDeletions();
+
+        // Return
+        return result;
+    }
+
     /**
      * Receives a list of relevant messages. Synchronized since it can be called concurrently from two parts of the bus
      *
@@ -425,8 +575,35 @@ public abstract class ConnectionEmail {
                 PARTICIPANT_NAME_START_TAG + receiver.getName() + PARTICIPANT_NAME_END_TAG + "\n" +
                 PARTICIPANT_EMAIL_START_TAG + receiver.getEmailAddress() + PARTICIPANT_EMAIL_END_TAG;
 
+        // Identifier
+        String messageID = message instanceof BusMessageFragment ? ((BusMessageFragment) message).getMessageID() : null;
+
         // Send
-        this.send(recipient, subject, body, message);
+        this.send(recipient, subject, body, message, messageID);
+    }
+
+    /**
+     * Send several messages to participants. Implementations may override this to use a single session.
+     *
+     * @param messages
+     * @return for each message an error or null if it has been sent
+     */
+    protected BusException[] send(List<BusMessage> messages) {
+
+        // Prepare
+        BusException[] result = new BusException[messages.size()];
+
+        // Send one by one
+        for (int index = 0; index < messages.size(); index++) {
+            try {
+                send(messages.get(index));
+            } catch (BusException e) {
+                result[index] = e;
+            }
+        }
+
+        // Return
+        return result;
     }
 
     /**
@@ -436,9 +613,10 @@ public abstract class ConnectionEmail {
      * @param subject
      * @param body
      * @param attachment
+     * @param messageID - identifier of the message a fragment belongs to or null
      * @throws BusException
      */
-    protected abstract void send(String recipient, String subject, String body, Object attachment) throws BusException;
+    protected abstract void send(String recipient, String subject, String body, Object attachment, String messageID) throws BusException;
 
     /**
      * Internal message used by email connections
@@ -511,37 +689,37 @@ public abstract class ConnectionEmail {
          */
         private Object getObject(InputStream inputStream) throws IOException, ClassNotFoundException {
             BufferedInputStream bufferedis = new BufferedInputStream(inputStream);
-            ByteArrayInputStream bis = new ByteArrayInputStream(bufferedis.readAllBytes());
-            ObjectInputStream ois = new ObjectInputStream(new GZIPInputStream(bis));
+            byte[] data = bufferedis.readAllBytes();
+            ByteArrayInputStream bis = new ByteArrayInputStream(data);
+            ObjectInputStream ois = new ObjectInputStream(PayloadCompression.isGZIP(data) ? new GZIPInputStream(bis) : bis);
             Object result = ois.readObject();
             ois.close();
             return result;
         }
 
         /**
-         * Deletes the message on the server
+         * Queues the message to be deleted on the server when deletions are flushed
          */
         protected void delete() {
-            try {
-                message.setFlag(Flag.DELETED, true);
-            } catch (MessagingException e) {
-                LOGGER.debug("Delete failed logged", new Date(), "delete failed", ExceptionUtils.getStackTrace(e));
-                // Ignore, as this may be a result of non-transactional properties of the IMAP protocol
+            synchronized (deletions) {
+                deletions.add(this);
             }
         }
 
         /**
-         * Expunges all deleted messages on the server
+         * Expunges deleted messages on the server. This is done once when deletions are flushed.
          */
         protected void expunge() {
-            try {
-                if (message.getFolder() != null && message.getFolder().isOpen()) {
-                    message.getFolder().expunge();
-                }
-            } catch (MessagingException e) {
-                LOGGER.debug("Expunge failed logged", new Date(), "expunge failed", ExceptionUtils.getStackTrace(e));
-                // Ignore, as this may be a result of non-transactional properties of the IMAP protocol
-            }
+            // Empty by design
+        }
+
+        /**
+         * Returns the underlying message
+         *
+         * @return
+         */
+        protected jakarta.mail.Message getMessage() {
+            return message;
         }
 
         /**
@@ -0,0 +1,1146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bihealth.mi.easybus.implementations.email;
+
+import org.bihealth.mi.easybus.BusException;
+import org.bihealth.mi.easybus.BusMessage;
+import org.bihealth.mi.easybus.MessageFilter;
+import org.bihealth.mi.easybus.PerformanceListener;
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.math3.util.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.FetchProfile;
+import jakarta.mail.Flags;
+import jakarta.mail.Folder;
+import jakarta.mail.Message;
+import jakarta.mail.Message.RecipientType;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Store;
+import jakarta.mail.Transport;
+import jakarta.mail.UIDFolder;
+import jakarta.mail.event.MessageCountAdapter;
+import jakarta.mail.event.MessageCountEvent;
+import jakarta.mail.event.MessageCountListener;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.search.AndTerm;
+import jakarta.mail.search.OrTerm;
+import jakarta.mail.search.SearchTerm;
+import jakarta.mail.search.SubjectTerm;
+import jakarta.mail.util.ByteArrayDataSource;
+import org.eclipse.angus.mail.imap.IMAPFolder;
+import org.eclipse.angus.mail.imap.IMAPStore;
+import org.eclipse.angus.mail.imap.IdleManager;
+
+/**
+ * Defines the connection using IMAP to receive and SMTP to send e-mails
+ * It is assumed that user credentials are the same to receive and to send e-mails
+ *
+ * @author Felix Wirth
+ * @author Fabian Prasser
+ */
+public class ConnectionIMAP extends ConnectionEmail {
+
+    /**
+     * Connection used for all messages of a batch
+     *
+     * @author Fabian Prasser
+     */
+    private static class Batch {
+
+        /**
+         * Pool the connection has been borrowed from
+         */
+        private SMTPTransportPool transports;
+        /**
+         * Connection or null if none has been borrowed, yet
+         */
+        private Transport transport;
+    }
+
+    /**
+     * File name of the attached message
+     */
+    private static final String FILENAME_MESSAGE = "message";
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(ConnectionIMAP.class);
+    /**
+     * Regex to check whether start of contains the e-mail subject prefix
+     */
+    private static final Pattern START_CONTAIN_PREFIX_PATTERN = Pattern.compile(".*" + EMAIL_SUBJECT_PREFIX.replace("[", "\\[").replace("]", "\\]") + ".*");
+    /**
+     * Keeps idle connections alive and closes unused connections
+     */
+    private static final ScheduledExecutorService MAINTENANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "EasyBus-IMAP-Maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Waits for changes of all watched inboxes with IMAP IDLE, created when first needed
+     */
+    private static IdleManager idleManager;
+    /**
+     * Maximal number of scopes by which the search for messages is narrowed on the server
+     */
+    private static final int MAX_SCOPES_SEARCH = 20;
+    /**
+     * Properties t o receive
+     */
+    private final Properties propertiesReceiving;
+    /**
+     * Lock of the receiving connection
+     */
+    private final ReentrantLock lockReceiving = new ReentrantLock();
+    /**
+     * Properties to send
+     */
+    private final Properties propertiesSending;
+    /**
+     * Store object to access e-mail server
+     */
+    private Store store;
+    /**
+     * Folder receiving
+     */
+    private Folder folder;
+    /**
+     * Listener notified about changes of the inbox or null
+     */
+    private volatile Runnable watchListener;
+    /**
+     * Folder to which the change listener has been added
+     */
+    private Folder watchedFolder;
+    /**
+     * Whether changes are currently pushed by the server
+     */
+    private volatile boolean watching;
+    /**
+     * Forwards new messages to the listener
+     */
+    private final MessageCountListener countListener = new MessageCountAdapter() {
+        @Override
+        public void messagesAdded(MessageCountEvent event) {
+            Runnable listener = watchListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    };
+    /**
+     * State of the synchronization with the inbox
+     */
+    private volatile IMAPSyncState syncState = new IMAPSyncState();
+    /**
+     * Time of the last command sent with the receiving connection
+     */
+    private long lastUsed;
+    /**
+     * Task keeping the receiving connection alive
+     */
+    private ScheduledFuture<?> keepAlive;
+    /**
+     * Session to send e-mails
+     */
+    private Session sessionSending;
+    /**
+     * Pool of connections to send e-mails
+     */
+    private SMTPTransportPool transports;
+    /**
+     * Batch sent by the current thread or null
+     */
+    private final ThreadLocal<Batch> batches = new ThreadLocal<>();
+    /**
+     * Task closing unused connections to send e-mails
+     */
+    private ScheduledFuture<?> eviction;
+    /**
+     * Session to receive e-mails
+     */
+    private Session sessionReceiving;
+    /**
+     * Password of the user
+     */
+    private final String receivingPassword;
+    /**
+     * Performance listener
+     */
+    private final transient PerformanceListener listener;
+    /**
+     * Password of the sending user
+     */
+    private final String sendingPassword;
+
+    /**
+     * Create a new instance
+     *
+     * @param settings      of mailbox
+     * @param sharedMailbox - use shared mailbox or separated mailboxes
+     * @throws BusException
+     */
+    public ConnectionIMAP(ConnectionSettingsIMAP settings,
+                          boolean sharedMailbox) throws BusException {
+
+        // Super
+        super(sharedMailbox,
+                settings.getIMAPEmailAddress(),
+                settings.getSMTPEmailAddress(),
+                settings.getIMAPUserName() != null ? settings.getIMAPUserName() : settings.getIMAPEmailAddress(),
+                settings.getSMTPUserName() != null ? settings.getSMTPUserName() : settings.getSMTPEmailAddress(),
+                settings.getPerformanceListener());
+
+        // Check
+        settings.check();
+        if (settings.getIMAPPassword() == null || settings.getSMTPPassword() == null) {
+            throw new IllegalArgumentException("Passwords cannot be null");
+        }
+
+        // Store
+        this.receivingPassword = settings.getIMAPPassword();
+        this.sendingPassword = settings.getSMTPPassword();
+        this.listener = settings.getPerformanceListener();
+
+        // Search for proxy
+        Pair<String, Integer> proxy = null;
+        if (settings.isSearchForProxy()) {
+            proxy = ConnectionIMAPProxy.getProxy(settings);
+        }
+
+        // Create properties of receiving connection
+        this.propertiesReceiving = new Properties();
+        this.propertiesReceiving.put("mail.store.protocol", "imap");
+        this.propertiesReceiving.put("mail.user", getReceivingUserName());
+        this.propertiesReceiving.put("mail.from", getReceivingEmailAddress());
+        this.propertiesReceiving.put("mail.imap.host", settings.getIMAPServer());
+        this.propertiesReceiving.put("mail.imap.port", String.valueOf(settings.getIMAPPort()));
+        this.propertiesReceiving.put("mail.imap.partialfetch", "false");
+        this.propertiesReceiving.put("mail.imap.fetchsize", Resources.FETCH_SIZE_IMAP);
+        this.propertiesReceiving.put("mail.imap.usesocketchannels", "true");
+        this.propertiesReceiving.put("mail.event.scope", "application");
+        this.propertiesReceiving.put(settings.isSSLTLSIMAP() ? "mail.imap.ssl.enable" : "mail.imap.starttls.enable", "true");
+        if (settings.isAcceptSelfSignedCertificates()) {
+            this.propertiesReceiving.put("mail.imap.ssl.trust", "*");
+        }
+
+        // Set IMAP auth mechanisms if present in settings
+        if (settings.getIMAPAuthMechanisms() != null) {
+            this.propertiesReceiving.put("mail.imap.auth.mechanisms", settings.getIMAPAuthMechanisms());
+        }
+
+        // Set proxy
+        if (proxy != null) {
+            this.propertiesReceiving.setProperty("mail.imap.proxy.host", proxy.getFirst());
+            this.propertiesReceiving.setProperty("mail.imap.proxy.port", String.valueOf(proxy.getSecond()));
+        }
+
+        // Create properties of sending connection
+        this.propertiesSending = new Properties();
+        this.propertiesSending.put("mail.transport.protocol", "smtp");
+        this.propertiesSending.put("mail.user", getSendingUserName());
+        this.propertiesSending.put("mail.from", getSendingEmailAddress());
+        this.propertiesSending.put("mail.smtp.host", settings.getSMTPServer());
+        this.propertiesSending.put("mail.smtp.port", String.valueOf(settings.getSMTPPort()));
+        this.propertiesSending.put("mail.smtp.auth", "true");
+        this.propertiesSending.put(settings.isSSLTLSSMTP() ? "mail.smtp.ssl.enable" : "mail.smtp.starttls.enable", "true");
+        if (settings.isAcceptSelfSignedCertificates()) {
+            this.propertiesSending.put("mail.smtp.ssl.trust", "*");
+        }
+
+        // Set proxy
+        if (proxy != null) {
+            this.propertiesSending.setProperty("mail.smtp.proxy.host", proxy.getFirst());
+            this.propertiesSending.setProperty("mail.smtp.proxy.port", String.valueOf(proxy.getSecond()));
+        }
+
+        // Set SMTP auth mechanisms if present in settings
+        if (settings.getSMTPAuthMechanisms() != null) {
+            this.propertiesSending.put("mail.smtp.auth.mechanisms", settings.getSMTPAuthMechanisms());
+        }
+    }
+
+    /**
+     * Checks if connections are working
+     */
+    public boolean checkConnection() {
+
+        // Check receiving
+        return isReceivingConnected();
+    }
+
+    /**
+     * Transforms an object into a byte stream array
+     *
+     * @param object
+     * @return byte stream array
+     */
+    private byte[] getByteArrayOutputStream(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream ous = new ObjectOutputStream(bos);
+        ous.writeObject(object);
+        ous.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Connects the store and opens the inbox if necessary. The connection is kept open across polls.
+     * If it has not been used for a while, it is checked with NOOP and re-established if it has been dropped.
+     * Must be called while holding the receiving lock.
+     *
+     * @throws BusException
+     */
+    private void connect() throws BusException {
+
+        // Check connection which has not been used for a while
+        if (folder != null && folder.isOpen() && System.currentTimeMillis() - lastUsed >= Resources.INTERVAL_IMAP_KEEP_ALIVE) {
+            try {
+                noop();
+            } catch (MessagingException e) {
+                LOGGER.debug("Connection to mail server dropped, reconnecting", e);
+                disconnect();
+            }
+        }
+
+        try {
+
+            if (sessionReceiving == null) {
+                sessionReceiving = Session.getInstance(propertiesReceiving);
+            }
+
+            if (store == null || !store.isConnected()) {
+                // Create store
+                store = sessionReceiving.getStore();
+
+                // Connect store
+                store.connect(getReceivingUserName(), receivingPassword);
+
+                if (folder != null && folder.isOpen()) {
+                    try {
+                        folder.close();
+                    } catch (MessagingException e) {
+                        // Ignore
+                    }
+                }
+                folder = null;
+            }
+
+            // Create folder new if necessary
+            if (folder == null) {
+                folder = store.getFolder("INBOX");
+                if (!folder.exists()) {
+                    throw new BusException("Unable to identify inbox folder of mail box");
+                }
+            }
+
+            // Open folder
+            if (!folder.isOpen()) {
+                folder.open(Folder.READ_WRITE);
+            }
+
+            // Keep alive while not used
+            if (keepAlive == null) {
+                keepAlive = MAINTENANCE.scheduleWithFixedDelay(this::keepAlive,
+                        Resources.INTERVAL_IMAP_KEEP_ALIVE, Resources.INTERVAL_IMAP_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+            }
+            lastUsed = System.currentTimeMillis();
+
+        } catch (MessagingException e) {
+            disconnect();
+            throw new BusException("Error establishing or keeping alive connection to mail server", e);
+        }
+    }
+
+    /**
+     * Closes the receiving connection without stopping to keep it alive. Must be called while holding the receiving lock.
+     */
+    private void disconnect() {
+        try {
+            if (folder != null && folder.isOpen()) {
+                folder.close(false);
+            }
+        } catch (MessagingException e) {
+            LOGGER.debug("Closing folder failed", e);
+        }
+        try {
+            if (store != null && store.isConnected()) {
+                store.close();
+            }
+        } catch (MessagingException e) {
+            LOGGER.debug("Closing store failed", e);
+        }
+        folder = null;
+        store = null;
+        watching = false;
+    }
+
+    /**
+     * Sends NOOP if the receiving connection has not been used for a while, so that the server does not drop it.
+     * Skipped if the connection is in use, as it is kept alive anyway and the thread is shared by all connections.
+     */
+    private void keepAlive() {
+        if (!lockReceiving.tryLock()) {
+            return;
+        }
+        try {
+
+            // Check
+            if (folder == null || !folder.isOpen() || System.currentTimeMillis() - lastUsed < Resources.INTERVAL_IMAP_KEEP_ALIVE) {
+                return;
+            }
+
+            // Keep alive or reconnect lazily with the next poll
+            try {
+                noop();
+                lastUsed = System.currentTimeMillis();
+            } catch (MessagingException e) {
+                LOGGER.debug("Keeping connection to mail server alive failed", e);
+                disconnect();
+            }
+
+            // This also re-issues waiting for changes before the server ends it
+            resumeWatching();
+        } finally {
+            lockReceiving.unlock();
+        }
+    }
+
+    /**
+     * Sends NOOP with the receiving connection. Must be called while holding the receiving lock.
+     *
+     * @throws MessagingException
+     */
+    private void noop() throws MessagingException {
+        if (!(folder instanceof IMAPFolder)) {
+            throw new MessagingException("Unable to send NOOP to mail server");
+        }
+        ((IMAPFolder) folder).doCommand(protocol -> {
+            protocol.simpleCommand("NOOP", null);
+            return null;
+        });
+    }
+
+    @Override
+    protected void warmUp() throws BusException {
+
+        // Log in to the mail box
+        lockReceiving.lock();
+        try {
+            connect();
+        } finally {
+            lockReceiving.unlock();
+        }
+
+        // Log in to the mail server to send
+        SMTPTransportPool transports = getTransports();
+        try {
+            transports.giveBack(transports.borrow(), false);
+        } catch (MessagingException e) {
+            throw new BusException("Unable to connect to send messages", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusException("Interrupted while connecting to send messages", e);
+        }
+    }
+
+    @Override
+    protected void close() {
+        lockReceiving.lock();
+        try {
+
+            // Stop keeping alive
+            if (keepAlive != null) {
+                keepAlive.cancel(false);
+                keepAlive = null;
+            }
+
+            // Close
+            disconnect();
+        } finally {
+            lockReceiving.unlock();
+        }
+
+        // Close connections to send
+        synchronized (propertiesSending) {
+            if (eviction != null) {
+                eviction.cancel(false);
+                eviction = null;
+            }
+            if (transports != null) {
+                transports.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the pool of connections to send e-mails
+     *
+     * @return
+     */
+    private SMTPTransportPool getTransports() {
+        synchronized (propertiesSending) {
+
+            // Create
+            if (transports == null) {
+                sessionSending = Session.getInstance(propertiesSending, null);
+                transports = new SMTPTransportPool(sessionSending, getSendingUserName(), sendingPassword,
+                        Resources.SIZE_SMTP_POOL, Resources.TIMEOUT_SMTP_IDLE);
+            }
+
+            // Close unused connections
+            if (eviction == null) {
+                eviction = MAINTENANCE.scheduleWithFixedDelay(transports::evictIdle,
+                        Resources.TIMEOUT_SMTP_IDLE, Resources.TIMEOUT_SMTP_IDLE, TimeUnit.MILLISECONDS);
+            }
+
+            // Return
+            return transports;
+        }
+    }
+
+    @Override
+    protected boolean isWatching() {
+        return watching;
+    }
+
+    @Override
+    protected boolean watch(Runnable listener) throws BusException {
+
+        lockReceiving.lock();
+        try {
+
+            // Check
+            connect();
+            try {
+                if (!(folder instanceof IMAPFolder) || !((IMAPStore) folder.getStore()).hasCapability("IDLE")) {
+                    return false;
+                }
+            } catch (MessagingException e) {
+                throw new BusException("Unable to query capabilities of mail server", e);
+            }
+
+            // Watch
+            watchListener = listener;
+            resumeWatching();
+            if (!watching) {
+                throw new BusException("Unable to wait for changes of the mail box");
+            }
+            return true;
+        } finally {
+            lockReceiving.unlock();
+        }
+    }
+
+    @Override
+    protected void unwatch() {
+        watchListener = null;
+        watching = false;
+    }
+
+    /**
+     * Waits for changes of the inbox with IMAP IDLE again. Any command sent with the receiving connection
+     * ends waiting, so this is called whenever the connection is released. Must be called while holding
+     * the receiving lock.
+     */
+    private void resumeWatching() {
+
+        // Check
+        if (watchListener == null || folder == null || !folder.isOpen()) {
+            watching = false;
+            return;
+        }
+
+        // Watch
+        try {
+            if (folder != watchedFolder) {
+                if (watchedFolder != null) {
+                    watchedFolder.removeMessageCountListener(countListener);
+                }
+                folder.addMessageCountListener(countListener);
+                watchedFolder = folder;
+            }
+            getIdleManager(sessionReceiving).watch(folder);
+            watching = true;
+        } catch (IOException | MessagingException e) {
+            LOGGER.debug("Unable to wait for changes of the mail box", e);
+            watching = false;
+        }
+    }
+
+    /**
+     * Returns the manager waiting for changes of all watched inboxes on a fixed number of threads
+     *
+     * @param session
+     * @return
+     * @throws IOException
+     */
+    private static synchronized IdleManager getIdleManager(Session session) throws IOException {
+        if (idleManager == null || !idleManager.isRunning()) {
+            idleManager = new IdleManager(session, Executors.newFixedThreadPool(Resources.SIZE_IDLE_SERVICE, runnable -> {
+                Thread thread = new Thread(runnable, "EasyBus-IDLE");
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+        return idleManager;
+    }
+
+    /**
+     * Is there a working connection to receive
+     *
+     * @return
+     */
+    protected boolean isReceivingConnected() {
+        lockReceiving.lock();
+        try {
+            try {
+                // Reuse the live connection or reconnect
+                connect();
+                noop();
+                lastUsed = System.currentTimeMillis();
+                return true;
+            } catch (BusException | MessagingException e) {
+                disconnect();
+                return false;
+            } finally {
+                resumeWatching();
+            }
+        } finally {
+            lockReceiving.unlock();
+        }
+    }
+
+    @Override
+    protected List<ConnectionEmailMessage> list(MessageFilter filter) throws BusException, InterruptedException {
+
+        lockReceiving.lock();
+        try {
+
+            // Make sure we are ready to go
+            connect();
+
+            // Init
+            List<ConnectionEmailMessage> result = new ArrayList<>();
+            IMAPSyncState state = this.syncState;
+
+            try {
+
+                // Learn about new messages
+                sync(state, filter);
+
+                // Select relevant messages among the messages known to be in the folder
+                List<Long> uids = new ArrayList<>();
+                for (Entry<Long, String> entry : state.getMessages().entrySet()) {
+                    if (filter == null || filter.accepts(entry.getValue())) {
+                        uids.add(entry.getKey());
+                    }
+                }
+                if (uids.isEmpty()) {
+                    return result;
+                }
+
+                // Fetch selected messages by UID and prefetch what is needed to process them
+                long[] selected = new long[uids.size()];
+                for (int index = 0; index < selected.length; index++) {
+                    selected[index] = uids.get(index);
+                }
+                Message[] messages = ((UIDFolder) folder).getMessagesByUID(selected);
+                List<Message> present = new ArrayList<>();
+                for (int index = 0; index < messages.length; index++) {
+                    if (messages[index] == null) {
+                        // Expunged in the meantime
+                        state.remove(selected[index]);
+                    } else {
+                        present.add(messages[index]);
+                    }
+                }
+                messages = present.toArray(new Message[0]);
+                FetchProfile profile = new FetchProfile();
+                profile.add(FetchProfile.Item.ENVELOPE);
+                profile.add(FetchProfile.Item.FLAGS);
+                profile.add(UIDFolder.FetchProfileItem.UID);
+                profile.add(HEADER_MESSAGE_ID);
+                folder.fetch(messages, profile);
+
+                // Load messages
+                List<Message> duplicates = new ArrayList<>();
+                for (Message message : messages) {
+                    String subject = message.getSubject();
+                    long uid = ((UIDFolder) folder).getUID(message);
+                    LOGGER.debug("Message considered logged", new Date(), "Message considered", uid, subject);
+                    // Check for interrupt
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+
+                    // Select relevant messages
+                    try {
+                        // Skip messages deleted in the meantime
+                        if (message.isSet(Flags.Flag.DELETED)) {
+                            state.remove(uid);
+                            continue;
+                        }
+                        // Drop duplicates before downloading
+                        String[] messageID = message.getHeader(HEADER_MESSAGE_ID);
+                        if (messageID != null && messageID.length > 0 && filter != null && filter.isDuplicate(messageID[0])) {
+                            LOGGER.debug("Duplicate message skipped logged", new Date(), "Duplicate message skipped", uid, subject);
+                            duplicates.add(message);
+                            state.remove(uid);
+                            continue;
+                        }
+                        LOGGER.debug("Message received logged", new Date(), "Message received", uid, subject);
+                        result.add(new ConnectionEmailMessage(message));
+                    } catch (Exception e) {
+                        // Ignore, as this may be a result of non-transactional properties of the IMAP protocol
+                        LOGGER.debug("message.getSubject() failed logged", new Date(), "message.getSubject() failed", ExceptionUtils.getStackTrace(e));
+                    }
+                }
+
+                // Delete duplicates at once
+                if (!duplicates.isEmpty()) {
+                    Message[] deleted = duplicates.toArray(new Message[0]);
+                    folder.setFlags(deleted, new Flags(Flags.Flag.DELETED), true);
+                    expunge(deleted);
+                }
+
+            } catch (MessagingException e) {
+                // Reconnect with the next poll
+                disconnect();
+                throw new BusException("Cannot read messages", e);
+            } finally {
+                // Remember state across restarts
+                try {
+                    state.persist();
+                } catch (IOException e) {
+                    LOGGER.error("Unable to persist IMAP synchronization state", e);
+                }
+                resumeWatching();
+            }
+
+            // Done
+            return result;
+        } finally {
+            lockReceiving.unlock();
+        }
+    }
+
+    /**
+     * Deletes the given messages with one batched STORE and removes them with UID EXPUNGE if the
+     * server supports it. Messages listed with a connection which has been closed in the meantime
+     * are skipped and deleted as duplicates when they are received again.
+     *
+     * @param messages
+     */
+    @Override
+    protected void delete(List<ConnectionEmailMessage> messages) {
+
+        lockReceiving.lock();
+        try {
+
+            // Select messages of the current connection
+            List<Message> selected = new ArrayList<>();
+            for (ConnectionEmailMessage message : messages) {
+                if (folder != null && folder.isOpen() && message.getMessage().getFolder() == folder) {
+                    selected.add(message.getMessage());
+                }
+            }
+            if (selected.isEmpty()) {
+                return;
+            }
+            IMAPSyncState state = this.syncState;
+
+            try {
+
+                // Flag all at once and expunge only these messages if possible
+                Message[] deleted = selected.toArray(new Message[0]);
+                folder.setFlags(deleted, new Flags(Flags.Flag.DELETED), true);
+                for (Message message : deleted) {
+                    state.remove(((UIDFolder) folder).getUID(message));
+                }
+                expunge(deleted);
+                LOGGER.debug("Messages deleted logged", new Date(), "Messages deleted", deleted.length);
+
+            } catch (MessagingException e) {
+                // Ignore, as this may be a result of non-transactional properties of the IMAP protocol
+                LOGGER.debug("Delete failed logged", new Date(), "delete failed", ExceptionUtils.getStackTrace(e));
+            } finally {
+                // Remember state across restarts
+                try {
+                    state.persist();
+                } catch (IOException e) {
+                    LOGGER.error("Unable to persist IMAP synchronization state", e);
+                }
+                resumeWatching();
+            }
+        } finally {
+            lockReceiving.unlock();
+        }
+    }
+
+    /**
+     * Removes the given messages flagged as deleted with UID EXPUNGE if the server supports UIDPLUS
+     * and expunges the folder otherwise. Must be called while holding the receiving lock.
+     *
+     * @param messages
+     * @throws MessagingException
+     */
+    private void expunge(Message[] messages) throws MessagingException {
+        if (folder instanceof IMAPFolder && ((IMAPStore) folder.getStore()).hasCapability("UIDPLUS")) {
+            ((IMAPFolder) folder).expunge(messages);
+        } else {
+            folder.expunge();
+        }
+    }
+
+    /**
+     * Deletes all relevant e-mails. E-mails are selected by UID and subject only, flagged with one
+     * batched STORE and removed with UID EXPUNGE if the server supports it, so that no content is downloaded.
+     *
+     * @param filter
+     * @return the number of e-mails deleted
+     * @throws BusException
+     * @throws InterruptedException
+     */
+    @Override
+    protected int purge(MessageFilter filter) throws BusException, InterruptedException {
+
+        lockReceiving.lock();
+        try {
+
+            // Make sure we are ready to go
+            connect();
+            IMAPSyncState state = this.syncState;
+
+            try {
+
+                // Search on the server and prefetch subjects and UIDs only
+                Message[] messages = search(getScopes(filter), null);
+                FetchProfile profile = new FetchProfile();
+                profile.add(FetchProfile.Item.ENVELOPE);
+                profile.add(UIDFolder.FetchProfileItem.UID);
+                folder.fetch(messages, profile);
+
+                // Select
+                List<Message> selected = new ArrayList<>();
+                for (Message message : messages) {
+
+                    // Check for interrupt
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+
+                    String subject = message.getSubject();
+                    if (subject != null && START_CONTAIN_PREFIX_PATTERN.matcher(subject).matches() &&
+                        (filter == null || filter.accepts(subject))) {
+                        selected.add(message);
+                    }
+                }
+                if (selected.isEmpty()) {
+                    return 0;
+                }
+
+                // Flag all at once and expunge only these messages if possible
+                Message[] deleted = selected.toArray(new Message[0]);
+                folder.setFlags(deleted, new Flags(Flags.Flag.DELETED), true);
+                for (Message message : deleted) {
+                    state.remove(((UIDFolder) folder).getUID(message));
+                }
+                expunge(deleted);
+                LOGGER.debug("Messages purged logged", new Date(), "Messages purged", deleted.length);
+
+                // Return
+                return deleted.length;
+
+            } catch (MessagingException e) {
+                // Reconnect with the next poll
+                disconnect();
+                throw new BusException("Unable to delete messages", e);
+            } finally {
+                // Remember state across restarts
+                try {
+                    state.persist();
+                } catch (IOException e) {
+                    LOGGER.error("Unable to persist IMAP synchronization state", e);
+                }
+                resumeWatching();
+            }
+        } finally {
+            lockReceiving.unlock();
+        }
+    }
+
+    /**
+     * Sets the file in which the state of the synchronization with the inbox is persisted,
+     * so that restarts do not examine the whole inbox again
+     *
+     * @param file
+     */
+    @Override
+    protected void setStateFile(File file) {
+        this.syncState = new IMAPSyncState(file);
+    }
+
+    /**
+     * Returns the scopes to narrow a search to
+     *
+     * @param filter
+     * @return the scopes or null if the search should not be narrowed
+     */
+    private Collection<String> getScopes(MessageFilter filter) {
+        Collection<String> scopes = filter != null ? filter.getScopes() : null;
+        return scopes != null && scopes.size() <= MAX_SCOPES_SEARCH ? scopes : null;
+    }
+
+    /**
+     * Searches for messages of EasySMPC, narrowed to the given scopes if possible.
+     * Must be called while holding the receiving lock.
+     *
+     * @param scopes - or null to not narrow the search
+     * @param messages - to search among or null to search the whole inbox
+     * @return
+     * @throws MessagingException
+     */
+    private Message[] search(Collection<String> scopes, Message[] messages) throws MessagingException {
+
+        // Check
+        if ((scopes != null && scopes.isEmpty()) || (messages != null && messages.length == 0)) {
+            return new Message[0];
+        }
+
+        // Prepare
+        SearchTerm term = new SubjectTerm(EMAIL_SUBJECT_PREFIX);
+
+        // Narrow by scope
+        if (scopes != null) {
+            List<SearchTerm> terms = new ArrayList<>();
+            for (String scope : scopes) {
+                terms.add(new SubjectTerm(SCOPE_NAME_START_TAG + scope + SCOPE_NAME_END_TAG));
+            }
+            term = new AndTerm(term, terms.size() == 1 ? terms.get(0) : new OrTerm(terms.toArray(new SearchTerm[0])));
+        }
+
+        // Search
+        return messages == null ? folder.search(term) : folder.search(term, messages);
+    }
+
+    /**
+     * Remembers EasySMPC messages which have been added to the inbox since the last call. Only messages
+     * above the highest UID examined are searched, narrowed to the scopes of the filter. Messages of scopes
+     * which have not been examined before are searched in the whole inbox. If UIDVALIDITY has changed,
+     * the inbox is searched from scratch. Must be called while holding the receiving lock.
+     *
+     * @param state
+     * @param filter
+     * @throws MessagingException
+     */
+    private void sync(IMAPSyncState state, MessageFilter filter) throws MessagingException {
+
+        // Prepare
+        UIDFolder uidFolder = (UIDFolder) folder;
+        long uidValidity = uidFolder.getUIDValidity();
+        Collection<String> scopes = getScopes(filter);
+        long lastUID = state.getLastUID();
+        List<Message> messages = new ArrayList<>();
+
+        // Search from scratch or search new messages only
+        if (uidValidity != state.getUIDValidity()) {
+            LOGGER.debug("Synchronizing inbox from scratch logged", new Date(), "Synchronizing inbox from scratch", uidValidity);
+            state.reset(uidValidity, scopes);
+
+            // Determine the highest UID before searching, so that messages arriving meanwhile are examined by the next poll
+            int count = folder.getMessageCount();
+            if (count > 0) {
+                lastUID = uidFolder.getUID(folder.getMessage(count));
+            }
+            messages.addAll(Arrays.asList(search(scopes, null)));
+        } else {
+
+            // Search scopes not examined so far in the whole inbox
+            Collection<String> missing = state.getMissingScopes(scopes);
+            if (missing == null || !missing.isEmpty()) {
+                messages.addAll(Arrays.asList(search(missing, null)));
+                state.addScopes(scopes);
+            }
+
+            // Search among messages above the highest UID examined, which are listed with their UIDs only
+            List<Message> recent = new ArrayList<>();
+            for (Message message : uidFolder.getMessagesByUID(lastUID + 1, UIDFolder.LASTUID)) {
+                long uid = uidFolder.getUID(message);
+                if (uid > state.getLastUID()) {
+                    recent.add(message);
+                    lastUID = Math.max(lastUID, uid);
+                }
+            }
+            messages.addAll(Arrays.asList(search(scopes, recent.toArray(new Message[0]))));
+        }
+
+        // Prefetch subjects and UIDs
+        Message[] found = messages.toArray(new Message[0]);
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.ENVELOPE);
+        profile.add(UIDFolder.FetchProfileItem.UID);
+        folder.fetch(found, profile);
+
+        // Remember EasySMPC messages
+        for (Message message : found) {
+            String subject = message.getSubject();
+            if (subject != null && START_CONTAIN_PREFIX_PATTERN.matcher(subject).matches()) {
+                state.add(uidFolder.getUID(message), subject);
+            }
+        }
+        state.setLastUID(lastUID);
+    }
+
+    /**
+     * Sends all messages of a batch over one pooled connection on the calling thread, so that
+     * TLS, authentication and pool accounting happen once per batch
+     */
+    @Override
+    protected BusException[] send(List<BusMessage> messages) {
+
+        // Check
+        if (messages.size() <= 1) {
+            return super.send(messages);
+        }
+
+        // Send, borrowing the connection with the first message
+        Batch batch = new Batch();
+        batches.set(batch);
+        try {
+            return super.send(messages);
+        } finally {
+            batches.remove();
+            if (batch.transport != null) {
+                batch.transports.giveBack(batch.transport, false);
+            }
+        }
+    }
+
+    @Override
+    protected void send(String recipient, String subject, String body, Object attachment, String messageID) throws BusException {
+
+        // Make sure we are ready to go
+        SMTPTransportPool transports = getTransports();
+
+        try {
+
+            // Create message
+            MimeMessage email = new MimeMessage(sessionSending);
+
+            // Add sender and recipient
+            email.setRecipient(RecipientType.TO, new InternetAddress(recipient));
+            email.setSender(new InternetAddress(getSendingEmailAddress()));
+            email.setFrom(new InternetAddress(getSendingEmailAddress()));
+            email.setSubject(subject);
+            if (messageID != null) {
+                email.setHeader(HEADER_MESSAGE_ID, messageID);
+            }
+
+            // Add body
+            MimeBodyPart mimeBodyPart = new MimeBodyPart();
+            mimeBodyPart.setDisposition(MimeBodyPart.INLINE);
+            mimeBodyPart.setContent(body, "text/plain");
+            Multipart multipart = new MimeMultipart();
+            multipart.addBodyPart(mimeBodyPart);
+
+            // Add attachment
+            long attachmentSize = 0;
+            if (attachment != null) {
+                mimeBodyPart = new MimeBodyPart();
+                mimeBodyPart.setDisposition(MimeBodyPart.ATTACHMENT);
+                byte[] attachmentBytes = getByteArrayOutputStream(attachment);
+                mimeBodyPart.setDataHandler(new DataHandler(new ByteArrayDataSource(attachmentBytes, "application/octet-stream")));
+                mimeBodyPart.setFileName(FILENAME_MESSAGE);
+                multipart.addBodyPart(mimeBodyPart);
+                attachmentSize = attachmentBytes.length;
+            }
+
+            // Compose message
+            email.setContent(multipart);
+            email.saveChanges();
+
+            // Send with the connection of the current batch or a pooled connection.
+            // A connection dropped by the server while unused is replaced once.
+            Batch batch = batches.get();
+            for (int attempt = 0; ; attempt++) {
+                Transport transport;
+                if (batch != null) {
+                    if (batch.transport == null) {
+                        batch.transport = transports.borrow();
+                        batch.transports = transports;
+                    }
+                    transport = batch.transport;
+                } else {
+                    transport = transports.borrow();
+                }
+                try {
+                    transport.sendMessage(email, email.getAllRecipients());
+                    if (batch == null) {
+                        transports.giveBack(transport, false);
+                    }
+                    break;
+                } catch (MessagingException e) {
+                    if (batch != null) {
+                        batch.transports.giveBack(transport, true);
+                        batch.transport = null;
+                    } else {
+                        transports.giveBack(transport, true);
+                    }
+                    if (attempt > 0 || e instanceof SendFailedException) {
+                        throw e;
+                    }
+                }
+            }
+            if (listener != null) {
+                listener.messageSent(attachmentSize);
+            }
+            LOGGER.debug("Message sent logged", new Date(), "Message sent", subject);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusException("Interrupted while sending message", e);
+        } catch (Exception e) {
+            throw new BusException("Unable to send message", e);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bihealth.mi.easybus.implementations.email;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * State of the incremental synchronization with an IMAP folder: the UIDVALIDITY of the folder,
+ * the highest UID examined and the subjects of EasySMPC messages which are still in the folder.
+ * Only messages above the highest UID need to be examined by the next poll. If UIDVALIDITY
+ * changes, UIDs are not valid anymore and the folder must be examined from scratch. Polls may
+ * only examine the messages of some scopes, so the state also remembers which scopes have been
+ * examined up to the highest UID.
+ * The state can optionally be persisted to a file.
+ *
+ * @author Fabian Prasser
+ */
+public class IMAPSyncState {
+
+    /**
+     * Maximal number of messages remembered
+     */
+    private static final int MAX_MESSAGES = 100000;
+    /**
+     * Subjects of messages still in the folder by UID
+     */
+    private final TreeMap<Long, String> messages = new TreeMap<>();
+    /**
+     * File or null
+     */
+    private final File file;
+    /**
+     * UIDVALIDITY of the folder or -1 if unknown
+     */
+    private long uidValidity = -1;
+    /**
+     * Highest UID examined
+     */
+    private long lastUID = 0;
+    /**
+     * Scopes of which all messages up to the highest UID have been examined or null for all scopes
+     */
+    private Set<String> scopes = null;
+    /**
+     * Changed since last persisted
+     */
+    private boolean dirty;
+
+    /**
+     * Creates a new in-memory instance
+     */
+    public IMAPSyncState() {
+        this(null);
+    }
+
+    /**
+     * Creates a new instance persisted to the given file. Existing content is loaded.
+     *
+     * @param file
+     */
+    public IMAPSyncState(File file) {
+
+        // Store
+        this.file = file;
+
+        // Load
+        if (file != null && file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                long uidValidity = in.readLong();
+                long lastUID = in.readLong();
+                int count = in.readInt();
+                TreeMap<Long, String> messages = new TreeMap<>();
+                for (int index = 0; index < count; index++) {
+                    messages.put(in.readLong(), in.readUTF());
+                }
+                Set<String> scopes = null;
+                if (in.readBoolean()) {
+                    scopes = new HashSet<>();
+                    count = in.readInt();
+                    for (int index = 0; index < count; index++) {
+                        scopes.add(in.readUTF());
+                    }
+                }
+                this.uidValidity = uidValidity;
+                this.lastUID = lastUID;
+                this.messages.putAll(messages);
+                this.scopes = scopes;
+            } catch (IOException e) {
+                // Start from scratch
+            }
+        }
+    }
+
+    /**
+     * Remembers a message still in the folder
+     *
+     * @param uid
+     * @param subject
+     */
+    public synchronized void add(long uid, String subject) {
+
+        // Store
+        messages.put(uid, subject);
+
+        // Forget oldest
+        while (messages.size() > MAX_MESSAGES) {
+            messages.pollFirstEntry();
+        }
+        dirty = true;
+    }
+
+    /**
+     * Remembers that all messages of the given scopes up to the highest UID have been examined
+     *
+     * @param scopes - or null for all scopes
+     */
+    public synchronized void addScopes(Collection<String> scopes) {
+        if (this.scopes == null) {
+            return;
+        }
+        if (scopes == null) {
+            this.scopes = null;
+        } else {
+            this.scopes.addAll(scopes);
+        }
+        this.dirty = true;
+    }
+
+    /**
+     * Returns the highest UID examined
+     *
+     * @return
+     */
+    public synchronized long getLastUID() {
+        return lastUID;
+    }
+
+    /**
+     * Returns the messages still in the folder
+     *
+     * @return subjects by UID
+     */
+    public synchronized Map<Long, String> getMessages() {
+        return new TreeMap<>(messages);
+    }
+
+    /**
+     * Returns the scopes among the given ones of which messages up to the highest UID have not been examined
+     *
+     * @param scopes - or null for all scopes
+     * @return the scopes, which is empty if all have been examined, or null if messages of all scopes must be examined
+     */
+    public synchronized Collection<String> getMissingScopes(Collection<String> scopes) {
+
+        // Everything examined
+        if (this.scopes == null) {
+            return new ArrayList<>();
+        }
+
+        // Everything requested
+        if (scopes == null) {
+            return null;
+        }
+
+        // Collect
+        List<String> result = new ArrayList<>();
+        for (String scope : scopes) {
+            if (!this.scopes.contains(scope)) {
+                result.add(scope);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the UIDVALIDITY the state refers to
+     *
+     * @return the value or -1 if unknown
+     */
+    public synchronized long getUIDValidity() {
+        return uidValidity;
+    }
+
+    /**
+     * Writes the state to its file if it has changed
+     *
+     * @throws IOException
+     */
+    public synchronized void persist() throws IOException {
+
+        // Check
+        if (file == null || !dirty) {
+            return;
+        }
+
+        // Write to temporary file
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeLong(uidValidity);
+            out.writeLong(lastUID);
+            out.writeInt(messages.size());
+            for (Map.Entry<Long, String> entry : messages.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.writeBoolean(scopes != null);
+            if (scopes != null) {
+                out.writeInt(scopes.size());
+                for (String scope : scopes) {
+                    out.writeUTF(scope);
+                }
+            }
+        }
+
+        // Replace
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    /**
+     * Forgets a message, e.g., because it has been deleted
+     *
+     * @param uid
+     */
+    public synchronized void remove(long uid) {
+        if (messages.remove(uid) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Starts from scratch for a folder with the given UIDVALIDITY
+     *
+     * @param uidValidity
+     * @param scopes - which will be examined or null for all scopes
+     */
+    public synchronized void reset(long uidValidity, Collection<String> scopes) {
+        this.uidValidity = uidValidity;
+        this.lastUID = 0;
+        this.messages.clear();
+        this.scopes = scopes == null ? null : new HashSet<>(scopes);
+        this.dirty = true;
+    }
+
+    /**
+     * Sets the highest UID examined
+     *
+     * @param lastUID
+     */
+    public synchronized void setLastUID(long lastUID) {
+        if (lastUID > this.lastUID) {
+            this.lastUID = lastUID;
+            this.dirty = true;
+        }
+    }
+}
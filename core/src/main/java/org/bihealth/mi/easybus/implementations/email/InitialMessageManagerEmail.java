@@ -58,6 +58,11 @@ public class InitialMessageManagerEmail extends InitialMessageManager {
         this.connection = new ConnectionIMAP(settings, false);
     }
 
+    @Override
+    protected String getAccount() {
+        return connection.getAccount();
+    }
+
     @Override
     public List<BusMessage> retrieveMessages() throws IllegalStateException {
         // Prepare
@@ -0,0 +1,269 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bihealth.mi.easybus.implementations.email;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+
+/**
+ * Pool of authenticated SMTP connections. Connections are reused for many messages, so that
+ * TLS and authentication are only performed once per connection. Each connection is used by
+ * one sender at a time, and connections which have not been used for a while are closed.
+ *
+ * @author Fabian Prasser
+ */
+public class SMTPTransportPool {
+
+    /**
+     * Connection not in use
+     *
+     * @author Fabian Prasser
+     */
+    private static class IdleTransport {
+
+        /**
+         * Transport
+         */
+        private final Transport transport;
+        /**
+         * Time since which the connection is not in use
+         */
+        private final long since;
+
+        /**
+         * Creates a new instance
+         *
+         * @param transport
+         */
+        private IdleTransport(Transport transport) {
+            this.transport = transport;
+            this.since = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(SMTPTransportPool.class);
+
+    /**
+     * Session
+     */
+    private final Session session;
+    /**
+     * User name
+     */
+    private final String userName;
+    /**
+     * Password
+     */
+    private final String password;
+    /**
+     * Maximal number of connections
+     */
+    private final int size;
+    /**
+     * Time after which connections not in use are closed in milliseconds
+     */
+    private final long idleTimeout;
+    /**
+     * Connections not in use, most recently used first
+     */
+    private final Deque<IdleTransport> idle = new ArrayDeque<>();
+    /**
+     * Number of connections open or being opened
+     */
+    private int open = 0;
+
+    /**
+     * Creates a new instance
+     *
+     * @param session
+     * @param userName
+     * @param password
+     * @param size        maximal number of connections
+     * @param idleTimeout time after which connections not in use are closed in milliseconds
+     */
+    public SMTPTransportPool(Session session, String userName, String password, int size, long idleTimeout) {
+
+        // Check
+        if (session == null) {
+            throw new NullPointerException("Session must not be null");
+        }
+        if (size <= 0 || idleTimeout <= 0) {
+            throw new IllegalArgumentException("Size and timeout must be positive");
+        }
+
+        // Store
+        this.session = session;
+        this.userName = userName;
+        this.password = password;
+        this.size = size;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns a connection not in use or opens a new one. If the maximal number of
+     * connections is in use, waits until a connection is returned.
+     *
+     * @return the connection
+     * @throws MessagingException
+     * @throws InterruptedException
+     */
+    public Transport borrow() throws MessagingException, InterruptedException {
+
+        // Reuse or reserve
+        List<Transport> expired = new ArrayList<>();
+        try {
+            synchronized (this) {
+                while (true) {
+                    evict(expired);
+                    IdleTransport available = idle.pollFirst();
+                    if (available != null) {
+                        return available.transport;
+                    }
+                    if (open < size) {
+                        open++;
+                        break;
+                    }
+                    wait();
+                }
+            }
+        } finally {
+            closeQuietly(expired);
+        }
+
+        // Connect outside of the lock
+        try {
+            Transport transport = session.getTransport();
+            transport.connect(userName, password);
+            return transport;
+        } catch (MessagingException | RuntimeException e) {
+            synchronized (this) {
+                open--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Closes all connections not in use
+     */
+    public void close() {
+
+        // Take
+        List<Transport> closing = new ArrayList<>();
+        synchronized (this) {
+            for (IdleTransport transport : idle) {
+                closing.add(transport.transport);
+            }
+            open -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+
+        // Close
+        closeQuietly(closing);
+    }
+
+    /**
+     * Closes connections which have not been used for a while
+     */
+    public void evictIdle() {
+        List<Transport> expired = new ArrayList<>();
+        synchronized (this) {
+            evict(expired);
+        }
+        closeQuietly(expired);
+    }
+
+    /**
+     * Returns a connection to the pool
+     *
+     * @param transport
+     * @param broken    whether the connection failed and must not be reused. Connections are not
+     *                  checked otherwise, as this would cost a round trip.
+     */
+    public void giveBack(Transport transport, boolean broken) {
+
+        // Keep if still usable
+        synchronized (this) {
+            if (!broken) {
+                idle.addFirst(new IdleTransport(transport));
+                notifyAll();
+                return;
+            }
+            open--;
+            notifyAll();
+        }
+
+        // Close
+        closeQuietly(transport);
+    }
+
+    /**
+     * Closes a connection ignoring errors
+     *
+     * @param transport
+     */
+    private void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            LOGGER.debug("Closing transport failed", e);
+        }
+    }
+
+    /**
+     * Closes connections ignoring errors
+     *
+     * @param transports
+     */
+    private void closeQuietly(List<Transport> transports) {
+        for (Transport transport : transports) {
+            closeQuietly(transport);
+        }
+    }
+
+    /**
+     * Removes connections which have not been used for a while. They are closed by the caller
+     * without holding the lock, as closing sends QUIT. Must be called while holding the lock.
+     *
+     * @param expired - to add the connections to close to
+     */
+    private void evict(List<Transport> expired) {
+        long now = System.currentTimeMillis();
+        Iterator<IdleTransport> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            IdleTransport transport = iterator.next();
+            if (now - transport.since < idleTimeout) {
+                break;
+            }
+            iterator.remove();
+            open--;
+            expired.add(transport.transport);
+        }
+    }
+}
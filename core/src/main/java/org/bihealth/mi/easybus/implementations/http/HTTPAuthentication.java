@@ -1,11 +1,11 @@
 package org.bihealth.mi.easybus.implementations.http;
 
-import android.content.Context;
-import android.util.Log;
-
 import org.bihealth.mi.easybus.implementations.http.easybackend.ConnectionSettingsEasyBackend;
+
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -27,6 +27,10 @@ import jakarta.ws.rs.core.Response;
  */
 public class HTTPAuthentication {
 
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(HTTPAuthentication.class);
     /**
      * Path to authorize
      */
@@ -60,8 +64,6 @@ public class HTTPAuthentication {
      */
     protected String grantType;
 
-    private Context context;
-
     /**
      * Creates a new instance
      */
@@ -181,7 +183,7 @@ public class HTTPAuthentication {
         try {
             // Execute request
             Response response = target.request(MediaType.APPLICATION_FORM_URLENCODED).post(Entity.form(authForm));
-            Log.i("INFO", "Response code: " + response.getStatus());
+            LOGGER.debug("Authentication response code: " + response.getStatus());
             // Check code
             if (response.getStatus() != 200) {
                 HTTPUtil.raiseException(response);
@@ -1,8 +1,6 @@
 package org.bihealth.mi.easybus.implementations.http.easybackend;
 
-import android.content.Context;
-import android.util.Log;
-
+import org.bihealth.mi.easybus.AdaptivePolling;
 import org.bihealth.mi.easybus.Bus;
 import org.bihealth.mi.easybus.BusException;
 import org.bihealth.mi.easybus.BusMessage;
@@ -10,16 +8,22 @@ import org.bihealth.mi.easybus.BusMessageFragment;
 import org.bihealth.mi.easybus.MessageFilter;
 import org.bihealth.mi.easybus.MessageManager;
 import org.bihealth.mi.easybus.Participant;
+import org.bihealth.mi.easybus.PayloadCompression;
 import org.bihealth.mi.easybus.PerformanceListener;
+import org.bihealth.mi.easybus.ReceiveService;
+import org.bihealth.mi.easybus.RetryPolicy;
 import org.bihealth.mi.easybus.Scope;
 import org.bihealth.mi.easybus.implementations.http.HTTPAuthentication;
 import org.bihealth.mi.easybus.implementations.http.HTTPException;
 import org.bihealth.mi.easybus.implementations.http.HTTPRequest;
 import org.bihealth.mi.easybus.implementations.http.HTTPRequest.HTTPRequestType;
+import org.bihealth.mi.easysmpc.resources.Resources;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -30,79 +34,138 @@ import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Bus implementation with easybackend
  */
 public class BusEasyBackend extends Bus {
 
-    private static final String TAG = "BusEasyBackend";
+    private static final Logger LOGGER = LogManager.getLogger(BusEasyBackend.class);
     private static final String PATH_SEND_MESSAGE_PATTERN = "api/easybackend/send/%s/%s";
     private static final String PATH_GET_MESSAGES_PATTERN = "api/easybackend/receive/%s";
-    private static final String PATH_DELETE_MESSAGE_PATTERN = "api/easybackend/message/%s";
     private static final String PATH_PURGE_PATTERN = "api/easybackend/message";
+    private static final String PARAMETER_IDS = "ids";
+    private static final String PARAMETER_SCOPES = "scopes";
+    private static final String SEEN_BACKEND_ID_PREFIX = "easybackend:";
 
     private final HTTPAuthentication auth;
     private final URI server;
     private final Participant self;
-    private final ExecutorService executorService;
+    private final ReceiveService.Registration registration;
     private final MessageManager messageManager;
+    /** Backend identifiers of the fragments of incomplete messages */
+    private final Map<String, Set<String>> pendingBackendIDs = new HashMap<>();
+    /** Backend identifiers of messages to delete at the end of the current poll */
+    private final List<BigInteger> deletions = new ArrayList<>();
     private final ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     private final long sleepMillis;
-    private boolean stop = false;
+    private volatile boolean stop = false;
     private String token = null;
     private PerformanceListener listener = null;
-    private Context context;
 
+    /**
+     * Creates a new instance sending on an own thread pool
+     *
+     * @param sizeThreadpool
+     * @param millis         - interval in milliseconds in which messages are polled
+     * @param settings
+     * @param self
+     * @param maxMessageSize
+     */
     public BusEasyBackend(int sizeThreadpool, long millis, ConnectionSettingsEasyBackend settings, Participant self, int maxMessageSize) {
-        super(sizeThreadpool);
+        this(sizeThreadpool, null, millis, settings, self, maxMessageSize);
+    }
+
+    /**
+     * Creates a new instance sending on a shared executor
+     *
+     * @param executor
+     * @param millis         - interval in milliseconds in which messages are polled
+     * @param settings
+     * @param self
+     * @param maxMessageSize
+     */
+    public BusEasyBackend(ExecutorService executor, long millis, ConnectionSettingsEasyBackend settings, Participant self, int maxMessageSize) {
+        this(0, Objects.requireNonNull(executor, "executor must not be null"), millis, settings, self, maxMessageSize);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param sizeThreadpool - ignored if an executor is given
+     * @param executor       - or null to send on an own thread pool
+     * @param millis
+     * @param settings
+     * @param self
+     * @param maxMessageSize
+     */
+    private BusEasyBackend(int sizeThreadpool, ExecutorService executor, long millis, ConnectionSettingsEasyBackend settings, Participant self, int maxMessageSize) {
+        super(sizeThreadpool, executor);
         this.auth = new HTTPAuthentication(settings);
         this.self = self;
+        this.messageManager = new MessageManager(maxMessageSize);
         this.listener = settings.getListener();
+        setPerformanceListener(this.listener);
         this.sleepMillis = millis;
         try {
             this.server = settings.getAPIServer().toURI();
         } catch (URISyntaxException e) {
             throw new IllegalStateException("API server URI is incorrect");
         }
-        this.messageManager = new MessageManager(maxMessageSize);
-        this.executorService = Executors.newFixedThreadPool(sizeThreadpool);
+        setRetryPolicy(new RetryPolicy(Resources.RETRY_EASYBACKEND_NUMBER_RETRY,
+                                       Resources.RETRY_EASYBACKEND_WAIT_TIME_RETRY,
+                                       Resources.RETRY_MAX_WAIT_TIME_RETRY));
 
-        startReceivingThread();
+        this.registration = registerReceiving();
     }
 
-    private void startReceivingThread() {
-        executorService.submit(() -> {
-            while (!stop) {
-                try {
-                    receive();
-                } catch (BusException | InterruptedException e) {
-                    Log.e(TAG, "Error receiving messages", e);
-                }
-                try {
-                    Thread.sleep(sleepMillis);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
+    private ReceiveService.Registration registerReceiving() {
+        ReceiveService.Registration registration = ReceiveService.getDefault().register("easybackend:" + server + ":" + self.getEmailAddress(), sleepMillis, () -> {
+            try {
+                pollCompleted(receive());
+            } catch (BusException e) {
+                LOGGER.error("Error receiving messages", e);
+            } catch (InterruptedException e) {
+                // Stopped
             }
         });
+        setPolling(new AdaptivePolling(registration, Resources.INTERVAL_POLL_MIN, sleepMillis));
+        return registration;
     }
 
     @Override
     public boolean isAlive() {
-        return !executorService.isShutdown();
+        return registration.isActive();
     }
 
     @Override
     public void stop() {
         stop = true;
-        executorService.shutdownNow();
+        registration.cancel();
+        shutdownExecutor();
+    }
+
+    @Override
+    public void warmUp() throws BusException {
+        getToken();
+    }
+
+    @Override
+    public void setPerformanceListener(PerformanceListener performanceListener) {
+        super.setPerformanceListener(performanceListener);
+        messageManager.setPerformanceListener(performanceListener);
     }
 
     @Override
@@ -148,31 +211,35 @@ public class BusEasyBackend extends Bus {
         return size;
     }
 
+    /**
+     * Deletes the messages of the scopes of the filter, or all messages if the filter does not
+     * name scopes, with one request to the bulk endpoint. Messages are neither listed nor downloaded.
+     */
     @Override
     public void purge(MessageFilter filter) throws BusException, InterruptedException {
-        Exception exception = null;
-        try {
-            new HTTPRequest(server, PATH_PURGE_PATTERN, HTTPRequestType.DELETE, getToken(), null).execute();
-        } catch (HTTPException e) {
-            if (e.getStatusCode() == 401) {
-                renewToken();
-                try {
-                    new HTTPRequest(server, PATH_PURGE_PATTERN, HTTPRequestType.DELETE, getToken(), null).execute();
-                    exception = null;
-                } catch (Exception e1) {
-                    exception = e1;
-                }
-            } else {
-                exception = e;
+
+        // Select scopes
+        Map<String, String> parameters = null;
+        Collection<String> scopes = filter != null ? filter.getScopes() : null;
+        if (scopes != null) {
+            if (scopes.isEmpty()) {
+                return;
             }
+            parameters = new HashMap<>();
+            parameters.put(PARAMETER_SCOPES, join(scopes));
         }
-        if (exception != null) {
-            throw new BusException("Error purging messages!", exception);
+
+        // Delete
+        try {
+            deleteMessages(parameters);
+        } catch (BusException e) {
+            throw new BusException("Error purging messages!", e);
         }
     }
 
-    protected void receive() throws BusException, InterruptedException {
-        Log.d(TAG, "Started receiving");
+    protected int receive() throws BusException, InterruptedException {
+        LOGGER.debug("Started receiving");
+        int received = 0;
 
         for (String scope : getScopesForParticipant(self)) {
             String resultString = null;
@@ -195,44 +262,109 @@ public class BusEasyBackend extends Bus {
             }
 
             if (exception != null) {
-                Log.e(TAG, "Unable to get messages for " + self.getEmailAddress(), exception);
+                LOGGER.error("Unable to get messages for " + self.getEmailAddress(), exception);
                 continue;
             }
 
-            if (Thread.interrupted()) {
+            if (stop || Thread.interrupted()) {
                 throw new InterruptedException();
             }
 
             try {
                 messages = mapper.reader().readTree(resultString).elements();
             } catch (JsonProcessingException e) {
-                Log.e(TAG, "Error deserializing sync string!", e);
+                LOGGER.error("Error deserializing sync string!", e);
                 continue;
             }
 
             while (messages.hasNext()) {
-                if (Thread.interrupted()) {
+                if (stop || Thread.interrupted()) {
                     throw new InterruptedException();
                 }
 
                 JsonNode messagesNode = messages.next();
+
+                // Drop duplicates before deserialization
+                String backendID = SEEN_BACKEND_ID_PREFIX + messagesNode.path("id").asText();
+                if (isSeen(backendID)) {
+                    queueDeletion(messagesNode.path("id").bigIntegerValue());
+                    continue;
+                }
+
                 final BusMessage message;
                 try {
                     message = recreateMessage(messagesNode);
                 } catch (BusException e) {
-                    Log.e(TAG, "Unable to recreate message!", e);
+                    LOGGER.error("Unable to recreate message!", e);
                     continue;
                 }
 
+                // Drop fragments of messages already processed
+                String messageID = ((BusMessageFragment) message).getMessageID();
+                if (isSeen(message)) {
+                    markSeen(backendID);
+                    queueDeletion(messagesNode.path("id").bigIntegerValue());
+                    continue;
+                }
+                pendingBackendIDs.computeIfAbsent(messageID, key -> new LinkedHashSet<>()).add(backendID);
+
                 BusMessage messageComplete = messageManager.mergeMessage(message);
                 if (messageComplete != null) {
+                    markSeen(messageID);
+                    for (String id : pendingBackendIDs.remove(messageID)) {
+                        markSeen(id);
+                    }
                     receiveInternal(messageComplete);
+                    received++;
                     if (listener != null) {
                         listener.messageReceived(0);  // TODO: Determine and use correct size of received message
                     }
                 }
             }
         }
+
+        // Delete processed messages, forget fragments dropped by the message manager and remember processed messages
+        flushDeletions();
+        pendingBackendIDs.keySet().removeIf(messageID -> !messageManager.isPending(messageID));
+        persistSeen();
+        return received;
+    }
+
+    /**
+     * Queues a message to be deleted once the current poll is complete
+     *
+     * @param id
+     */
+    private void queueDeletion(BigInteger id) {
+        synchronized (deletions) {
+            deletions.add(id);
+        }
+    }
+
+    /**
+     * Deletes all queued messages with one request to the bulk endpoint. Errors are ignored,
+     * since messages not deleted are received again and deleted as duplicates.
+     */
+    private void flushDeletions() {
+
+        // Take
+        List<BigInteger> ids;
+        synchronized (deletions) {
+            ids = new ArrayList<>(deletions);
+            deletions.clear();
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        // Delete
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(PARAMETER_IDS, join(ids));
+        try {
+            deleteMessages(parameters);
+        } catch (BusException e) {
+            LOGGER.debug("Unable to delete messages", e);
+        }
     }
 
     private BusMessage recreateMessage(JsonNode messagesNode) throws BusException {
@@ -254,7 +386,7 @@ public class BusEasyBackend extends Bus {
 
                 @Override
                 public void delete() throws BusException {
-                    deleteMessage(id);
+                    queueDeletion(id);
                 }
 
                 @Override
@@ -267,7 +399,7 @@ public class BusEasyBackend extends Bus {
 
                 @Override
                 public void delete() throws BusException {
-                    deleteMessage(id);
+                    queueDeletion(id);
                 }
 
                 @Override
@@ -277,15 +409,21 @@ public class BusEasyBackend extends Bus {
         }
     }
 
-    private void deleteMessage(BigInteger id) throws BusException {
+    /**
+     * Deletes messages with one request to the bulk endpoint
+     *
+     * @param parameters - selecting the messages to delete or null to delete all messages
+     * @throws BusException
+     */
+    private void deleteMessages(Map<String, String> parameters) throws BusException {
         Exception exception = null;
         try {
-            new HTTPRequest(server, String.format(PATH_DELETE_MESSAGE_PATTERN, id), HTTPRequestType.DELETE, getToken(), null).execute();
+            new HTTPRequest(server, PATH_PURGE_PATTERN, HTTPRequestType.DELETE, getToken(), null, null, parameters).execute();
         } catch (HTTPException e) {
             if (e.getStatusCode() == 401) {
                 renewToken();
                 try {
-                    new HTTPRequest(server, String.format(PATH_DELETE_MESSAGE_PATTERN, id), HTTPRequestType.DELETE, getToken(), null).execute();
+                    new HTTPRequest(server, PATH_PURGE_PATTERN, HTTPRequestType.DELETE, getToken(), null, null, parameters).execute();
                     exception = null;
                 } catch (Exception e1) {
                     exception = e1;
@@ -295,8 +433,25 @@ public class BusEasyBackend extends Bus {
             }
         }
         if (exception != null) {
-            throw new BusException("Unable to delete message", exception);
+            throw new BusException("Unable to delete messages", exception);
+        }
+    }
+
+    /**
+     * Joins values into a comma-separated list for a request parameter
+     *
+     * @param values
+     * @return
+     */
+    private static String join(Collection<?> values) {
+        StringBuilder result = new StringBuilder();
+        for (Object value : values) {
+            if (result.length() != 0) {
+                result.append(',');
+            }
+            result.append(value);
         }
+        return result.toString();
     }
 
     private String getToken() throws BusException {
@@ -311,20 +466,19 @@ public class BusEasyBackend extends Bus {
     }
 
     static Object deserializeMessage(String message) throws IOException, ClassNotFoundException {
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(Base64.getDecoder().decode(message));
-             GZIPInputStream gzis = new GZIPInputStream(bais);
-             ObjectInputStream ois = new ObjectInputStream(gzis)) {
+        byte[] data = Base64.getDecoder().decode(message);
+        try (ByteArrayInputStream bais = new ByteArrayInputStream(data);
+             ObjectInputStream ois = new ObjectInputStream(PayloadCompression.isGZIP(data) ? new GZIPInputStream(bais) : bais)) {
             return ois.readObject();
         }
     }
 
     private String serializeObject(Object message) throws IOException {
+        // Payloads have already been compressed by the message manager where worthwhile
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             GZIPOutputStream gzos = new GZIPOutputStream(baos);
-             ObjectOutputStream oos = new ObjectOutputStream(gzos)) {
+             ObjectOutputStream oos = new ObjectOutputStream(baos)) {
             oos.writeObject(message);
             oos.flush();
-            gzos.finish();
             return Base64.getEncoder().encodeToString(baos.toByteArray());
         }
     }
@@ -59,6 +59,10 @@ public class InitialMessageManagerEasyBackend extends InitialMessageManager {
      * Server
      */
     private final URI server;
+    /**
+     * Account polled
+     */
+    private final String account;
     /**
      * Message manager
      */
@@ -91,6 +95,12 @@ public class InitialMessageManagerEasyBackend extends InitialMessageManager {
         } catch (URISyntaxException e) {
             throw new IllegalStateException("API server URI is incorrect");
         }
+        this.account = "easybackend:" + server + ":" + settings.getIdentifier();
+    }
+
+    @Override
+    protected String getAccount() {
+        return account;
     }
 
     @Override
@@ -18,6 +18,8 @@ import org.bihealth.mi.easybus.BusException;
 import org.bihealth.mi.easybus.BusMessage;
 import org.bihealth.mi.easybus.MessageFilter;
 
+import java.util.concurrent.ExecutorService;
+
 /**
  * An easy, minimal Bus implementation
  *
@@ -34,6 +36,15 @@ public class BusLocal extends Bus {
         super(sizeThreadpool);
     }
 
+    /**
+     * Creates a new instance sending on a shared executor
+     *
+     * @param executor
+     */
+    public BusLocal(ExecutorService executor) {
+        super(executor);
+    }
+
     @Override
     public boolean isAlive() {
         return true;
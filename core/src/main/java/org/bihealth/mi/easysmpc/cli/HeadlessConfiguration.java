@@ -0,0 +1,512 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bihealth.mi.easysmpc.cli;
+
+import de.tu_darmstadt.cbs.emailsmpc.Bin;
+import de.tu_darmstadt.cbs.emailsmpc.Participant;
+import de.tu_darmstadt.cbs.emailsmpc.RollUp;
+import de.tu_darmstadt.cbs.emailsmpc.Study;
+import org.bihealth.mi.easybus.ConnectionSettings;
+import org.bihealth.mi.easybus.PasswordStore;
+import org.bihealth.mi.easybus.implementations.email.ConnectionSettingsIMAP;
+import org.bihealth.mi.easybus.implementations.http.easybackend.ConnectionSettingsEasyBackend;
+import org.bihealth.mi.easysmpc.dataimport.ImportFile;
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Configuration of the headless runner, read from a properties file. The file defines one
+ * connection, which is used by all studies, the studies to create and saved studies to resume.
+ * <p>
+ * Connection via e-mail:
+ * <pre>
+ * exchange_mode = EMAIL
+ * email.settings = imap.properties
+ * email.password = secret
+ * </pre>
+ * Connection via EasyBackend:
+ * <pre>
+ * exchange_mode = EASYBACKEND
+ * easybackend.email = hub@example.org
+ * easybackend.server = https://backend.example.org
+ * easybackend.auth_server = https://auth.example.org
+ * easybackend.password = secret
+ * </pre>
+ * Studies:
+ * <pre>
+ * study.1.name = study
+ * study.1.participants = Hub,hub@example.org;Site A,a@example.org;Site B,b@example.org
+ * study.1.data = data.csv
+ * study.1.dimensions = region,ward
+ * resume = first.smpc,second.smpc
+ * </pre>
+ *
+ * @author Felix Wirth
+ */
+public class HeadlessConfiguration {
+
+    /**
+     * Key
+     */
+    public static final String EXCHANGE_MODE_KEY = "exchange_mode";
+    /**
+     * Key
+     */
+    public static final String EMAIL_SETTINGS_KEY = "email.settings";
+    /**
+     * Key
+     */
+    public static final String EMAIL_PASSWORD_KEY = "email.password";
+    /**
+     * Key
+     */
+    public static final String EASYBACKEND_EMAIL_KEY = "easybackend.email";
+    /**
+     * Key
+     */
+    public static final String EASYBACKEND_SERVER_KEY = "easybackend.server";
+    /**
+     * Key
+     */
+    public static final String EASYBACKEND_AUTH_SERVER_KEY = "easybackend.auth_server";
+    /**
+     * Key
+     */
+    public static final String EASYBACKEND_REALM_KEY = "easybackend.realm";
+    /**
+     * Key
+     */
+    public static final String EASYBACKEND_CLIENT_ID_KEY = "easybackend.client_id";
+    /**
+     * Key
+     */
+    public static final String EASYBACKEND_CLIENT_SECRET_KEY = "easybackend.client_secret";
+    /**
+     * Key
+     */
+    public static final String EASYBACKEND_PASSWORD_KEY = "easybackend.password";
+    /**
+     * Key
+     */
+    public static final String CHECK_INTERVAL_KEY = "check_interval";
+    /**
+     * Key
+     */
+    public static final String SEND_TIMEOUT_KEY = "send_timeout";
+    /**
+     * Key
+     */
+    public static final String MAX_MESSAGE_SIZE_KEY = "max_message_size";
+    /**
+     * Key
+     */
+    public static final String WORKERS_KEY = "workers";
+    /**
+     * Key
+     */
+    public static final String MAX_ACTIVE_STUDIES_KEY = "max_active_studies";
+    /**
+     * Key
+     */
+    public static final String RESUME_KEY = "resume";
+    /**
+     * Key
+     */
+    public static final String OUTPUT_DIRECTORY_KEY = "output_directory";
+    /**
+     * Prefix of study keys
+     */
+    public static final String STUDY_PREFIX = "study.";
+    /**
+     * Key of a study
+     */
+    public static final String STUDY_NAME_KEY = "name";
+    /**
+     * Key of a study
+     */
+    public static final String STUDY_PARTICIPANTS_KEY = "participants";
+    /**
+     * Key of a study
+     */
+    public static final String STUDY_DATA_KEY = "data";
+    /**
+     * Key of a study
+     */
+    public static final String STUDY_BINS_KEY = "bins";
+    /**
+     * Key of a study
+     */
+    public static final String STUDY_DIMENSIONS_KEY = "dimensions";
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(HeadlessConfiguration.class);
+    /**
+     * Separator of list entries
+     */
+    private static final String LIST_SEPARATOR = ",";
+    /**
+     * Separator of participants
+     */
+    private static final String PARTICIPANT_SEPARATOR = ";";
+    /**
+     * The properties
+     */
+    private final Properties properties;
+    /**
+     * Directory against which relative paths are resolved
+     */
+    private final File directory;
+    /**
+     * Connection settings
+     */
+    private final ConnectionSettings connectionSettings;
+
+    /**
+     * Loads a configuration
+     *
+     * @param file
+     * @throws IOException
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    public HeadlessConfiguration(File file) throws IOException, IllegalArgumentException {
+
+        // Load
+        this.properties = new Properties();
+        try (InputStream stream = new FileInputStream(file)) {
+            this.properties.load(stream);
+        }
+        this.directory = file.getAbsoluteFile().getParentFile();
+
+        // Create connection
+        this.connectionSettings = createConnectionSettings();
+    }
+
+    /**
+     * Returns the connection settings used by all studies
+     *
+     * @return
+     */
+    public ConnectionSettings getConnectionSettings() {
+        return connectionSettings;
+    }
+
+    /**
+     * Returns the maximal number of studies processed concurrently
+     *
+     * @return
+     */
+    public int getMaxActiveStudies() {
+        return getInt(MAX_ACTIVE_STUDIES_KEY, Resources.MAX_ACTIVE_STUDIES);
+    }
+
+    /**
+     * Returns the directory to which states and results are written
+     *
+     * @return
+     */
+    public File getOutputDirectory() {
+        String value = properties.getProperty(OUTPUT_DIRECTORY_KEY);
+        return value == null ? directory : resolve(value);
+    }
+
+    /**
+     * Returns the number of threads performing the steps of studies
+     *
+     * @return
+     */
+    public int getWorkers() {
+        return getInt(WORKERS_KEY, Resources.SIZE_SCHEDULER_WORKERS);
+    }
+
+    /**
+     * Creates the studies defined in the configuration. The own participant is the first one.
+     *
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException
+     */
+    public List<Study> createStudies() throws IOException, IllegalArgumentException {
+
+        // Collect study keys
+        TreeSet<String> keys = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(STUDY_PREFIX) && key.indexOf('.', STUDY_PREFIX.length()) != -1) {
+                keys.add(key.substring(STUDY_PREFIX.length(), key.indexOf('.', STUDY_PREFIX.length())));
+            }
+        }
+
+        // Create
+        List<Study> result = new ArrayList<>();
+        for (String key : keys) {
+            result.add(createStudy(key));
+        }
+
+        // Done
+        return result;
+    }
+
+    /**
+     * Loads the saved studies to resume
+     *
+     * @return
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public List<Study> loadStudies() throws IOException, ClassNotFoundException {
+        List<Study> result = new ArrayList<>();
+        for (String file : getList(properties.getProperty(RESUME_KEY))) {
+            Study study = Study.loadModel(resolve(file));
+            study.setConnectionSettings(connectionSettings);
+            result.add(study);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a bin for each variable and shares the given value or zero
+     *
+     * @param variables
+     * @param data
+     * @param numberParticipants
+     * @return
+     */
+    private Bin[] createBins(List<String> variables, Map<String, String> data, int numberParticipants) {
+
+        // Create bins
+        Bin[] bins = new Bin[variables.size()];
+        for (int i = 0; i < bins.length; i++) {
+            String variable = variables.get(i);
+            BigDecimal value = BigDecimal.ZERO;
+            if (data.get(variable) != null) {
+                try {
+                    value = new BigDecimal(data.get(variable).trim().replace(',', '.'));
+                } catch (NumberFormatException e) {
+                    LOGGER.error(String.format("Unable to understand value %s for variable %s", data.get(variable), variable));
+                }
+            }
+            bins[i] = new Bin(variable);
+            bins[i].initialize(numberParticipants);
+            bins[i].shareValue(value, Resources.FRACTIONAL_BITS);
+        }
+
+        // Warn about unmapped variables
+        for (Entry<String, String> entry : data.entrySet()) {
+            if (!variables.contains(entry.getKey())) {
+                LOGGER.warn(String.format("Data for variable \"%s\" was provided, but variable was not found in variable definition", entry.getKey()));
+            }
+        }
+
+        // Return
+        return bins;
+    }
+
+    /**
+     * Creates the connection settings
+     *
+     * @return
+     * @throws IOException
+     */
+    private ConnectionSettings createConnectionSettings() throws IllegalArgumentException {
+
+        // Check
+        String mode = getRequired(EXCHANGE_MODE_KEY);
+
+        // E-mail
+        if (ConnectionSettings.ExchangeMode.EMAIL.name().equalsIgnoreCase(mode)) {
+            ConnectionSettingsIMAP settings = ConnectionSettingsIMAP.getConnectionIMAPSettingsFromFile(resolve(getRequired(EMAIL_SETTINGS_KEY)), null);
+            settings.setCheckInterval(getInt(CHECK_INTERVAL_KEY, Resources.INTERVAL_CHECK_MAILBOX_DEFAULT))
+                    .setEmailSendTimeout(getInt(SEND_TIMEOUT_KEY, Resources.TIMEOUT_SEND_EMAILS_DEFAULT))
+                    .setMaxMessageSize(getInt(MAX_MESSAGE_SIZE_KEY, Resources.EMAIL_MAX_MESSAGE_SIZE_DEFAULT));
+            settings.setPasswordStore(new PasswordStore(getRequired(EMAIL_PASSWORD_KEY)));
+            return settings;
+        }
+
+        // EasyBackend
+        if (ConnectionSettings.ExchangeMode.EASYBACKEND.name().equalsIgnoreCase(mode)) {
+            try {
+                ConnectionSettingsEasyBackend settings = new ConnectionSettingsEasyBackend(getRequired(EASYBACKEND_EMAIL_KEY), null)
+                        .setAPIServer(new URL(getRequired(EASYBACKEND_SERVER_KEY)))
+                        .setAuthServer(new URL(getRequired(EASYBACKEND_AUTH_SERVER_KEY)))
+                        .setRealm(properties.getProperty(EASYBACKEND_REALM_KEY, Resources.AUTH_REALM_DEFAULT))
+                        .setClientId(properties.getProperty(EASYBACKEND_CLIENT_ID_KEY, Resources.AUTH_CLIENTID_DEFAULT))
+                        .setCheckInterval(getInt(CHECK_INTERVAL_KEY, Resources.INTERVAL_CHECK_EASYBACKEND_DEFAULT))
+                        .setSendTimeout(getInt(SEND_TIMEOUT_KEY, Resources.TIMEOUT_SEND_EMAILS_DEFAULT))
+                        .setMaxMessageSize(getInt(MAX_MESSAGE_SIZE_KEY, Resources.EMAIL_MAX_MESSAGE_SIZE_DEFAULT));
+                if (properties.getProperty(EASYBACKEND_CLIENT_SECRET_KEY) != null) {
+                    settings.setClientSecret(properties.getProperty(EASYBACKEND_CLIENT_SECRET_KEY));
+                }
+                settings.setPasswordStore(new PasswordStore(getRequired(EASYBACKEND_PASSWORD_KEY)));
+                return settings;
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Invalid server URL", e);
+            }
+        }
+
+        // Unknown
+        throw new IllegalArgumentException(String.format("Unsupported exchange mode %s", mode));
+    }
+
+    /**
+     * Creates a study
+     *
+     * @param key
+     * @return
+     * @throws IOException
+     */
+    private Study createStudy(String key) throws IOException, IllegalArgumentException {
+
+        // Prepare
+        String prefix = STUDY_PREFIX + key + ".";
+        String name = getRequired(prefix + STUDY_NAME_KEY);
+        Participant[] participants = getParticipants(getRequired(prefix + STUDY_PARTICIPANTS_KEY));
+        Map<String, String> data = properties.getProperty(prefix + STUDY_DATA_KEY) == null ?
+                new LinkedHashMap<String, String>() :
+                ImportFile.forFile(resolve(properties.getProperty(prefix + STUDY_DATA_KEY))).getData();
+        List<String> variables = properties.getProperty(prefix + STUDY_BINS_KEY) == null ?
+                new ArrayList<>(data.keySet()) :
+                getList(properties.getProperty(prefix + STUDY_BINS_KEY));
+
+        // Check
+        if (participants.length < 3 || variables.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Study %s needs at least three participants and one bin", name));
+        }
+
+        // Share leaves only, as totals of hierarchical dimensions are derived locally
+        String[] dimensions = properties.getProperty(prefix + STUDY_DIMENSIONS_KEY) == null ? null :
+                getList(properties.getProperty(prefix + STUDY_DIMENSIONS_KEY)).toArray(new String[0]);
+        if (dimensions != null) {
+            int count = variables.size();
+            variables.removeIf(variable -> !RollUp.isLeaf(variable, dimensions.length));
+            data.keySet().removeIf(variable -> !RollUp.isLeaf(variable, dimensions.length));
+            if (variables.size() < count) {
+                LOGGER.info(String.format("Skipped %d pre-aggregated bins of study %s, totals are derived from leaves", count - variables.size(), name));
+            }
+            if (variables.isEmpty()) {
+                throw new IllegalArgumentException(String.format("Study %s needs at least one leaf bin", name));
+            }
+        }
+
+        // Create
+        Study study = new Study();
+        study.setFilename(new File(getOutputDirectory(), name + "." + Resources.FILE_ENDING));
+        if (dimensions != null) {
+            study.setDimensions(dimensions);
+        }
+        study.toStarting();
+        study.toInitialSending(name, participants, createBins(variables, data, participants.length), connectionSettings);
+        study.saveProgram();
+
+        // Done
+        return study;
+    }
+
+    /**
+     * Returns an integer
+     *
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    private int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Value of %s must be a number", key), e);
+        }
+    }
+
+    /**
+     * Splits a comma separated list
+     *
+     * @param value
+     * @return
+     */
+    private List<String> getList(String value) {
+        List<String> result = new ArrayList<>();
+        if (value != null) {
+            for (String entry : value.split(LIST_SEPARATOR)) {
+                if (!entry.trim().isEmpty()) {
+                    result.add(entry.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses participants in the form name1,email1;name2,email2
+     *
+     * @param value
+     * @return
+     */
+    private Participant[] getParticipants(String value) {
+        String[] entries = value.split(PARTICIPANT_SEPARATOR);
+        Participant[] result = new Participant[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] nameEmail = entries[i].split(LIST_SEPARATOR);
+            if (nameEmail.length != 2) {
+                throw new IllegalArgumentException(String.format("Participant %s is incorrectly formatted", entries[i]));
+            }
+            result[i] = new Participant(nameEmail[0].trim(), nameEmail[1].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Returns a required value
+     *
+     * @param key
+     * @return
+     */
+    private String getRequired(String key) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(String.format("Configuration does not contain %s", key));
+        }
+        return value.trim();
+    }
+
+    /**
+     * Resolves a path against the directory of the configuration
+     *
+     * @param path
+     * @return
+     */
+    private File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(directory, path);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bihealth.mi.easysmpc.cli;
+
+import de.tu_darmstadt.cbs.emailsmpc.BinResult;
+import de.tu_darmstadt.cbs.emailsmpc.Study;
+import org.bihealth.mi.easysmpc.dataexport.ExportFile;
+import org.bihealth.mi.easysmpc.resources.Resources;
+import org.bihealth.mi.easysmpc.scheduler.StudyProcessListener;
+import org.bihealth.mi.easysmpc.scheduler.StudyScheduler;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs studies without user interface on a plain JVM, e.g. the hub side of many studies on a
+ * server. Studies are defined in a configuration file (see {@link HeadlessConfiguration}) and
+ * are processed by a {@link StudyScheduler}. Processing can be stopped by entering
+ * {@link Resources#STOP_CLI_PROCESS_STRING}, states are saved and can be resumed later.
+ *
+ * @author Felix Wirth
+ */
+public class HeadlessRunner {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(HeadlessRunner.class);
+    /**
+     * Option
+     */
+    private static final Option OPTION_CONFIG = Option.builder("c")
+            .longOpt("config")
+            .desc("Configuration file")
+            .hasArg(true)
+            .required(true)
+            .build();
+    /**
+     * Option
+     */
+    private static final Option OPTION_HELP = Option.builder("h")
+            .longOpt("help")
+            .desc("Print help")
+            .hasArg(false)
+            .required(false)
+            .build();
+    /**
+     * Suffix of result files
+     */
+    private static final String RESULT_FILE_SUFFIX = "_result." + Resources.FILE_ENDING_CSV;
+    /**
+     * Configuration
+     */
+    private final HeadlessConfiguration configuration;
+    /**
+     * Scheduler
+     */
+    private final StudyScheduler scheduler;
+    /**
+     * Whether processing has been stopped by the user
+     */
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    /**
+     * Creates a new instance
+     *
+     * @param configuration
+     */
+    public HeadlessRunner(HeadlessConfiguration configuration) {
+        this.configuration = configuration;
+        this.scheduler = new StudyScheduler(configuration.getWorkers(),
+                Resources.SIZE_THREADPOOL,
+                configuration.getMaxActiveStudies(),
+                Resources.MAX_WAITING_STUDIES,
+                Resources.INTERVAL_SCHEDULER_MILLISECONDS);
+        this.scheduler.setStateDirectory(configuration.getOutputDirectory());
+    }
+
+    /**
+     * Entry point
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+
+        // Parse options
+        Options options = new Options().addOption(OPTION_CONFIG).addOption(OPTION_HELP);
+        CommandLine cli;
+        try {
+            if (Arrays.asList(args).contains("-h") || Arrays.asList(args).contains("--help")) {
+                new HelpFormatter().printHelp(HeadlessRunner.class.getSimpleName(), options);
+                return;
+            }
+            CommandLineParser parser = new DefaultParser();
+            cli = parser.parse(options, args);
+        } catch (ParseException e) {
+            LOGGER.error("Unable to parse command line", e);
+            new HelpFormatter().printHelp(HeadlessRunner.class.getSimpleName(), options);
+            System.exit(1);
+            return;
+        }
+
+        // Run
+        try {
+            HeadlessRunner runner = new HeadlessRunner(new HeadlessConfiguration(new File(cli.getOptionValue(OPTION_CONFIG))));
+            System.exit(runner.run() ? 0 : 1);
+        } catch (IOException | ClassNotFoundException | IllegalArgumentException | IllegalStateException e) {
+            LOGGER.error("Unable to run studies", e);
+            System.exit(1);
+        } catch (InterruptedException e) {
+            LOGGER.info("Execution stopped");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs all studies of the configuration and waits until they are finished or processing is stopped
+     *
+     * @return whether all studies have been finished successfully
+     * @throws IOException
+     * @throws ClassNotFoundException
+     * @throws InterruptedException
+     */
+    public boolean run() throws IOException, ClassNotFoundException, InterruptedException {
+
+        // Prepare studies
+        List<Study> studies = new ArrayList<>();
+        studies.addAll(configuration.loadStudies());
+        studies.addAll(configuration.createStudies());
+        if (studies.isEmpty()) {
+            LOGGER.warn("No studies defined");
+            return true;
+        }
+
+        // Submit
+        final CountDownLatch latch = new CountDownLatch(studies.size());
+        final AtomicBoolean success = new AtomicBoolean(true);
+        StudyProcessListener listener = new StudyProcessListener() {
+            @Override
+            public void finished(Study study) {
+                exportResult(study);
+                latch.countDown();
+            }
+
+            @Override
+            public void failed(Study study, Exception exception) {
+                success.set(false);
+                latch.countDown();
+            }
+        };
+        for (Study study : studies) {
+            scheduler.submit(study, listener);
+        }
+        LOGGER.info(String.format("Processing %d studies. Enter \"%s\" to stop", studies.size(), Resources.STOP_CLI_PROCESS_STRING));
+
+        // Wait for studies or stop request
+        Thread stopListener = createStopListener(latch);
+        try {
+            latch.await();
+        } finally {
+            stopListener.interrupt();
+            scheduler.stop();
+        }
+
+        // Done
+        return success.get() && !stopped.get();
+    }
+
+    /**
+     * Creates a thread waiting for the stop string on standard in
+     *
+     * @param latch released to stop waiting
+     * @return
+     */
+    private Thread createStopListener(final CountDownLatch latch) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+                    String line;
+                    while ((line = reader.readLine()) != null && !Thread.currentThread().isInterrupted()) {
+                        if (Resources.STOP_CLI_PROCESS_STRING.equalsIgnoreCase(line.trim())) {
+                            LOGGER.info("Stopping. States have been saved and can be resumed");
+                            stopped.set(true);
+                            while (latch.getCount() > 0) {
+                                latch.countDown();
+                            }
+                            return;
+                        }
+                    }
+                } catch (IOException e) {
+                    // Ignore, no console available
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Writes the result of a study to a file
+     *
+     * @param study
+     */
+    private void exportResult(Study study) {
+
+        // Prepare
+        List<List<String>> data = new ArrayList<>();
+        for (BinResult result : study.getAllResults()) {
+            data.add(Arrays.asList(result.name, String.valueOf(result.value)));
+        }
+
+        // Export
+        File file = new File(configuration.getOutputDirectory(), study.getName() + RESULT_FILE_SUFFIX);
+        try {
+            ExportFile.toFile(file).exportData(data);
+            LOGGER.info(String.format("Study %s finished. Please see result file %s", study.getName(), file.getPath()));
+        } catch (IOException e) {
+            LOGGER.error(String.format("Unable to write result of study %s", study.getName()), e);
+        }
+    }
+}
@@ -125,6 +125,23 @@ public class Resources {
      * Interval to check mail box automatically in milliseconds
      */
     public static final int INTERVAL_CHECK_MAILBOX_DEFAULT = 30000;
+    /**
+     * Minimal interval to poll for messages in milliseconds, used while messages of a round are arriving
+     */
+    public static final int INTERVAL_POLL_MIN = 1000;
+    /**
+     * Interval to poll for messages in milliseconds while changes of the mail box are pushed with IMAP IDLE
+     */
+    public static final int INTERVAL_POLL_IDLE = 300000;
+    /**
+     * Time after which an unused IMAP connection is checked with NOOP, which also re-issues IMAP IDLE, in milliseconds.
+     * Servers may drop connections and end IDLE after 30 minutes.
+     */
+    public static final int INTERVAL_IMAP_KEEP_ALIVE = 600000;
+    /**
+     * Number of consecutive failures after which IMAP IDLE is given up in favour of polling
+     */
+    public static final int IMAP_IDLE_MAX_FAILURES = 3;
     /**
      * Round for initial e-mails
      */
@@ -149,6 +166,66 @@ public class Resources {
      * Number of threads in thread pool
      */
     public static final int SIZE_THREADPOOL = 5;
+    /**
+     * Maximal number of SMTP connections per mailbox used to send concurrently
+     */
+    public static final int SIZE_SMTP_POOL = 3;
+    /**
+     * Time after which unused SMTP connections are closed in milliseconds
+     */
+    public static final int TIMEOUT_SMTP_IDLE = 60000;
+    /**
+     * Number of threads waiting for changes of all mailboxes with IMAP IDLE
+     */
+    public static final int SIZE_IDLE_SERVICE = 2;
+    /**
+     * Number of threads polling for messages on behalf of all buses
+     */
+    public static final int SIZE_RECEIVE_SERVICE = 2;
+    /**
+     * Number of threads performing the steps of studies in the scheduler
+     */
+    public static final int SIZE_SCHEDULER_WORKERS = 4;
+    /**
+     * Maximal number of studies processed concurrently by the scheduler
+     */
+    public static final int MAX_ACTIVE_STUDIES = 50;
+    /**
+     * Maximal number of studies waiting for admission to the scheduler
+     */
+    public static final int MAX_WAITING_STUDIES = 500;
+    /**
+     * Maximal number of bytes buffered for incomplete messages by a message manager
+     */
+    public static final long FRAGMENT_CACHE_MEMORY_BUDGET = 64L * 1024L * 1024L;
+    /**
+     * Time in milliseconds after which incomplete messages are dropped by a message manager
+     */
+    public static final long FRAGMENT_CACHE_TIME_TO_LIVE = 24L * 60L * 60L * 1000L;
+    /**
+     * Maximal interval in milliseconds between checks for expired incomplete messages
+     */
+    public static final long FRAGMENT_CACHE_EXPIRY_INTERVAL = 60L * 1000L;
+    /**
+     * Number of identifiers of processed messages remembered for duplicate suppression
+     */
+    public static final int SEEN_MESSAGES_CAPACITY = 100000;
+    /**
+     * Payloads smaller than this number of bytes are not compressed
+     */
+    public static final int COMPRESSION_MIN_SIZE = 256;
+    /**
+     * Number of bytes sampled to estimate the entropy of a payload
+     */
+    public static final int COMPRESSION_SAMPLE_SIZE = 4096;
+    /**
+     * Entropy in bits per byte from which payloads are not compressed
+     */
+    public static final double COMPRESSION_ENTROPY_NONE = 7.5d;
+    /**
+     * Entropy in bits per byte from which payloads are compressed with the fastest level
+     */
+    public static final double COMPRESSION_ENTROPY_FAST = 6.0d;
     /**
      * Fractional bits for decimal values
      */
@@ -157,6 +234,10 @@ public class Resources {
      * Aggregation delimiter
      */
     public static final String AGGREGATION_DELIMITER = "X";
+    /**
+     * Coordinate of rolled up dimensions
+     */
+    public static final String ROLL_UP_WILDCARD = "*";
     /**
      * Default message size for e-mails
      */
@@ -165,6 +246,38 @@ public class Resources {
      * CLI stop processing string
      */
     public static final String STOP_CLI_PROCESS_STRING = "stop";
+    /**
+     * Maximal number of messages queued for sending per bus
+     */
+    public static final int OUTBOUND_QUEUE_CAPACITY = 1000;
+    /**
+     * Retries when sending a message, -1 to retry until the bus is stopped
+     */
+    public static final int RETRY_NUMBER_RETRY = -1;
+    /**
+     * Wait time before the first retry when sending a message
+     */
+    public static final int RETRY_BASE_WAIT_TIME_RETRY = 1000;
+    /**
+     * Maximal wait time between retries when sending a message
+     */
+    public static final int RETRY_MAX_WAIT_TIME_RETRY = 30000;
+    /**
+     * Maximal number of retries in a burst per receiver
+     */
+    public static final int RETRY_BUDGET_SIZE = 20;
+    /**
+     * Time after which one further retry per receiver is allowed
+     */
+    public static final int RETRY_BUDGET_REFILL_TIME = 3000;
+    /**
+     * Consecutive failures after which a transport is not used for a while
+     */
+    public static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    /**
+     * Time for which a failing transport is not used
+     */
+    public static final int CIRCUIT_BREAKER_OPEN_TIME = 10000;
     /**
      * Retries when sending with HTTP for Easybackend
      */
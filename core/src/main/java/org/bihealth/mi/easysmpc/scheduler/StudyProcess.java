@@ -0,0 +1,363 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bihealth.mi.easysmpc.scheduler;
+
+import de.tu_darmstadt.cbs.emailsmpc.Message;
+import de.tu_darmstadt.cbs.emailsmpc.Study;
+import de.tu_darmstadt.cbs.emailsmpc.Study.StudyState;
+import org.bihealth.mi.easybus.Bus;
+import org.bihealth.mi.easybus.BusException;
+import org.bihealth.mi.easybus.BusMessage;
+import org.bihealth.mi.easybus.MessageListener;
+import org.bihealth.mi.easybus.Participant;
+import org.bihealth.mi.easybus.Scope;
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Drives a single study through the rounds of the protocol. In contrast to the user processes
+ * this class never blocks: each call to {@link #step()} performs the work that is currently
+ * possible and returns, so that many studies can be processed by a small number of threads.
+ *
+ * @author Felix Wirth
+ * @author Fabian Prasser
+ */
+public class StudyProcess implements MessageListener {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(StudyProcess.class);
+    /**
+     * The study
+     */
+    private final Study study;
+    /**
+     * Listener
+     */
+    private final StudyProcessListener listener;
+    /**
+     * Messages currently being sent by recipient id. Concurrent, as steps run on workers while
+     * processes may be cancelled by other threads.
+     */
+    private final Map<Integer, FutureTask<Void>> sending = new ConcurrentHashMap<>();
+    /**
+     * Start of sending the current round
+     */
+    private long sendingStarted = -1;
+    /**
+     * Scope currently subscribed to
+     */
+    private Scope subscribedScope;
+    /**
+     * Own participant as used by the bus
+     */
+    private Participant self;
+
+    /**
+     * Creates a new instance
+     *
+     * @param study
+     * @param listener
+     */
+    public StudyProcess(Study study, StudyProcessListener listener) {
+
+        // Check
+        if (study == null) {
+            throw new NullPointerException("Study must not be null");
+        }
+
+        // Store
+        this.study = study;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the study
+     *
+     * @return
+     */
+    public Study getStudy() {
+        return study;
+    }
+
+    @Override
+    public void receive(String message) {
+
+        // Check not null or empty
+        if (message == null || message.trim().isEmpty()) {
+            return;
+        }
+
+        try {
+            digest(Message.deserializeMessage(message));
+        } catch (ClassNotFoundException | IOException | IllegalArgumentException e) {
+            LOGGER.error("Unable to digest message", e);
+        }
+    }
+
+    @Override
+    public void receive(byte[] message) {
+
+        // Check not null or empty
+        if (message == null || message.length == 0) {
+            return;
+        }
+
+        try {
+            digest(Message.deserializeMessage(message));
+        } catch (ClassNotFoundException | IOException e) {
+            LOGGER.error("Unable to digest message", e);
+        }
+    }
+
+    /**
+     * Checks and sets a received message
+     *
+     * @param msg
+     */
+    private void digest(Message msg) {
+        try {
+            if (study.isMessageShareResultValid(msg)) {
+                study.setShareFromMessage(msg);
+                save();
+            }
+        } catch (IllegalStateException | IllegalArgumentException | NoSuchAlgorithmException |
+                 ClassNotFoundException | IOException e) {
+            LOGGER.error("Unable to digest message", e);
+        }
+    }
+
+    @Override
+    public void receiveError(Exception exception) {
+        LOGGER.error("Error receiving messages. Receiving will be retried", exception);
+    }
+
+    /**
+     * Performs all work that is currently possible without blocking
+     *
+     * @return whether the study has been finished
+     * @throws IllegalStateException
+     * @throws IOException
+     * @throws BusException
+     */
+    boolean step() throws IllegalStateException, IOException, BusException {
+
+        switch (study.getState()) {
+            case INITIAL_SENDING:
+            case SENDING_SHARE:
+                if (send(Resources.ROUND_1)) {
+                    study.toRecievingShares();
+                    save();
+                    LOGGER.info(String.format("1. round sending finished for study %s", study.getName()));
+                }
+                return false;
+            case RECIEVING_SHARE:
+                subscribe(Resources.ROUND_1);
+                if (study.isResultComputable()) {
+                    unsubscribe();
+                    study.toSendingResult();
+                    save();
+                    LOGGER.info(String.format("1. round receiving finished for study %s", study.getName()));
+                }
+                return false;
+            case SENDING_RESULT:
+                if (send(Resources.ROUND_2)) {
+                    study.toRecievingResult();
+                    save();
+                    LOGGER.info(String.format("2. round sending finished for study %s", study.getName()));
+                }
+                return false;
+            case RECIEVING_RESULT:
+                subscribe(Resources.ROUND_2);
+                if (study.isResultComputable()) {
+                    unsubscribe();
+                    study.toFinished();
+                    save();
+                    LOGGER.info(String.format("2. round receiving finished for study %s", study.getName()));
+                }
+                return false;
+            case FINISHED:
+                return true;
+            default:
+                throw new IllegalStateException("Study can not be processed automatically at state " + study.getState());
+        }
+    }
+
+    /**
+     * Cancels all pending operations
+     */
+    void cancel() {
+
+        // Cancel sending
+        for (FutureTask<Void> future : sending.values()) {
+            future.cancel(true);
+        }
+        sending.clear();
+
+        // Stop receiving
+        unsubscribe();
+    }
+
+    /**
+     * Returns the listener
+     *
+     * @return
+     */
+    StudyProcessListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Returns the own participant as used by the bus
+     *
+     * @return
+     * @throws BusException
+     */
+    private Participant getSelf() throws BusException {
+        if (self == null) {
+            self = new Participant(study.getParticipantFromId(study.getOwnId()).name,
+                    study.getParticipantFromId(study.getOwnId()).emailAddress);
+        }
+        return self;
+    }
+
+    /**
+     * Tries to save the current state and logs in case of an error
+     */
+    private void save() {
+
+        // Only save studies backed by a file
+        if (study.getFilename() == null) {
+            return;
+        }
+
+        // Try saving
+        try {
+            study.saveProgram();
+        } catch (IllegalStateException | IOException e) {
+            LOGGER.error("Unable to save interim state", e);
+        }
+    }
+
+    /**
+     * Sends all unsent messages of the current round without waiting for their completion
+     *
+     * @param roundIdentifier
+     * @return whether all messages have been sent
+     * @throws BusException
+     * @throws IOException
+     */
+    private boolean send(String roundIdentifier) throws BusException, IOException {
+
+        // Prepare
+        Bus bus = study.getBus();
+        String round = study.getState() == StudyState.INITIAL_SENDING ? Resources.ROUND_0 : roundIdentifier;
+        if (sendingStarted == -1) {
+            sendingStarted = System.currentTimeMillis();
+        }
+
+        // Start sending messages not yet in progress in one batch
+        List<Integer> indices = new ArrayList<>();
+        List<BusMessage> messages = new ArrayList<>();
+        for (int index = 0; index < study.getNumParticipants(); index++) {
+            if (index != study.getOwnId() && study.getUnsentMessageFor(index) != null && !sending.containsKey(index)) {
+                indices.add(index);
+                messages.add(new BusMessage(new Participant(study.getParticipants()[index].name, study.getParticipants()[index].emailAddress),
+                        new Scope(study.getName() + round),
+                        Message.serializeMessageBinary(study.getUnsentMessageFor(index))));
+            }
+        }
+        if (!messages.isEmpty()) {
+            List<FutureTask<Void>> futures = bus.sendAll(messages);
+            for (int position = 0; position < indices.size(); position++) {
+                sending.put(indices.get(position), futures.get(position));
+            }
+        }
+
+        // Collect messages which have been sent
+        Iterator<Entry<Integer, FutureTask<Void>>> iterator = sending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<Integer, FutureTask<Void>> entry = iterator.next();
+            if (entry.getValue().isDone()) {
+                try {
+                    entry.getValue().get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new BusException("Unable to send message", e);
+                }
+                study.markMessageSent(entry.getKey());
+                iterator.remove();
+                save();
+            }
+        }
+
+        // Check timeout
+        if (!sending.isEmpty() && System.currentTimeMillis() - sendingStarted > study.getConnectionSettings().getSendTimeout()) {
+            cancel();
+            throw new BusException("Timeout while sending messages");
+        }
+
+        // Check done
+        if (sending.isEmpty() && !study.messagesUnsent()) {
+            sendingStarted = -1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Subscribes to the scope of a round if not already subscribed and updates the number of messages expected
+     *
+     * @param roundIdentifier
+     * @throws BusException
+     */
+    private void subscribe(String roundIdentifier) throws BusException {
+        Scope scope = new Scope(study.getName() + roundIdentifier);
+        if (!scope.equals(subscribedScope)) {
+            unsubscribe();
+            study.getBus().receive(scope, getSelf(), this);
+            subscribedScope = scope;
+        }
+
+        // Tell the bus how many messages are outstanding
+        study.getBus().setExpectedMessages(scope, study.getNumberOfMessagesMissing());
+    }
+
+    /**
+     * Stops receiving messages for the current round
+     */
+    private void unsubscribe() {
+        if (subscribedScope != null) {
+            try {
+                study.getBus().unsubscribe(subscribedScope, getSelf(), this);
+            } catch (BusException e) {
+                LOGGER.error("Unable to unsubscribe", e);
+            }
+            subscribedScope = null;
+        }
+    }
+}
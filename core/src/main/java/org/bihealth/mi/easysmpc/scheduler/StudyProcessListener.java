@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bihealth.mi.easysmpc.scheduler;
+
+import de.tu_darmstadt.cbs.emailsmpc.Study;
+
+/**
+ * Listener informed about the outcome of a study run by the scheduler
+ *
+ * @author Felix Wirth
+ */
+public interface StudyProcessListener {
+
+    /**
+     * Called when a study has been finished and results can be obtained
+     *
+     * @param study
+     */
+    void finished(Study study);
+
+    /**
+     * Called when a study could not be processed
+     *
+     * @param study
+     * @param exception
+     */
+    void failed(Study study, Exception exception);
+}
@@ -0,0 +1,398 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bihealth.mi.easysmpc.scheduler;
+
+import de.tu_darmstadt.cbs.emailsmpc.Study;
+import org.bihealth.mi.easybus.Bus;
+import org.bihealth.mi.easybus.BusException;
+import org.bihealth.mi.easybus.BusPool;
+import org.bihealth.mi.easybus.ConnectionSettings;
+import org.bihealth.mi.easybus.SeenMessages;
+import org.bihealth.mi.easybus.implementations.email.BusEmail;
+import org.bihealth.mi.easysmpc.resources.Resources;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many studies in one process with a fixed number of threads. Studies are processed
+ * round-robin: each study performs one non-blocking step at a time and is then re-queued behind
+ * all other studies, so that no study can starve the others. The number of studies processed
+ * concurrently is limited, further studies wait for admission. Studies using the same connection
+ * share one bus and all buses send on one shared transport pool.
+ *
+ * @author Felix Wirth
+ * @author Fabian Prasser
+ */
+public class StudyScheduler {
+
+    /**
+     * Logger
+     */
+    private static final Logger LOGGER = LogManager.getLogger(StudyScheduler.class);
+    /**
+     * Suffix of files storing the identifiers of processed messages
+     */
+    private static final String SEEN_MESSAGES_FILE_SUFFIX = ".seen";
+    /**
+     * Suffix of files storing the state of the synchronization with an IMAP inbox
+     */
+    private static final String SYNC_STATE_FILE_SUFFIX = ".imap";
+    /**
+     * Workers performing the steps of the studies
+     */
+    private final ExecutorService workers;
+    /**
+     * Threads used by all buses to send messages
+     */
+    private final ExecutorService transport;
+    /**
+     * Timer to re-queue studies
+     */
+    private final ScheduledExecutorService timer;
+    /**
+     * Maximal number of studies processed concurrently
+     */
+    private final int maxActiveStudies;
+    /**
+     * Maximal number of studies waiting for admission
+     */
+    private final int maxWaitingStudies;
+    /**
+     * Interval between two steps of a study
+     */
+    private final long stepInterval;
+    /**
+     * Studies waiting for admission
+     */
+    private final Queue<StudyProcess> waiting = new ArrayDeque<>();
+    /**
+     * Studies currently processed
+     */
+    private final Set<StudyProcess> active = new HashSet<>();
+    /**
+     * Shared buses by connection
+     */
+    private final BusPool buses = new BusPool();
+    /**
+     * Buses attached to the studies currently processed
+     */
+    private final Map<StudyProcess, Bus> attached = new HashMap<>();
+    /**
+     * Stop flag
+     */
+    private boolean stopped = false;
+    /**
+     * Directory in which the identifiers of processed messages are persisted or null
+     */
+    private File stateDirectory = null;
+
+    /**
+     * Creates a new instance with default sizes
+     */
+    public StudyScheduler() {
+        this(Resources.SIZE_SCHEDULER_WORKERS,
+                Resources.SIZE_THREADPOOL,
+                Resources.MAX_ACTIVE_STUDIES,
+                Resources.MAX_WAITING_STUDIES,
+                Resources.INTERVAL_SCHEDULER_MILLISECONDS);
+    }
+
+    /**
+     * Creates a new instance
+     *
+     * @param sizeWorkers       threads performing the steps of studies
+     * @param sizeTransport     threads shared by all buses for sending
+     * @param maxActiveStudies  maximal number of studies processed concurrently
+     * @param maxWaitingStudies maximal number of studies waiting for admission
+     * @param stepInterval      milliseconds between two steps of a study
+     */
+    public StudyScheduler(int sizeWorkers, int sizeTransport, int maxActiveStudies, int maxWaitingStudies, long stepInterval) {
+
+        // Check
+        if (sizeWorkers <= 0 || sizeTransport <= 0 || maxActiveStudies <= 0 || maxWaitingStudies < 0 || stepInterval <= 0) {
+            throw new IllegalArgumentException("Sizes and interval must be positive numbers");
+        }
+
+        // Store and create
+        this.maxActiveStudies = maxActiveStudies;
+        this.maxWaitingStudies = maxWaitingStudies;
+        this.stepInterval = stepInterval;
+        this.workers = Executors.newFixedThreadPool(sizeWorkers);
+        this.transport = Executors.newFixedThreadPool(sizeTransport);
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Returns the number of studies currently processed
+     *
+     * @return
+     */
+    public synchronized int getNumberOfActiveStudies() {
+        return active.size();
+    }
+
+    /**
+     * Returns the number of studies waiting for admission
+     *
+     * @return
+     */
+    public synchronized int getNumberOfWaitingStudies() {
+        return waiting.size();
+    }
+
+    /**
+     * Sets a directory in which each bus persists the identifiers of processed messages,
+     * so that duplicates are suppressed across restarts, and the state of its mailbox
+     * synchronization, so that mailboxes are not examined from scratch after restarts
+     *
+     * @param stateDirectory
+     */
+    public synchronized void setStateDirectory(File stateDirectory) {
+        this.stateDirectory = stateDirectory;
+    }
+
+    /**
+     * Stops the scheduler. Studies are not finished but can be resumed from their saved state.
+     */
+    public synchronized void stop() {
+
+        // Set flag
+        this.stopped = true;
+
+        // Cancel studies
+        for (StudyProcess process : active) {
+            process.cancel();
+        }
+        active.clear();
+        waiting.clear();
+
+        // Stop buses
+        buses.stop();
+        attached.clear();
+
+        // Stop threads
+        timer.shutdownNow();
+        workers.shutdownNow();
+        transport.shutdownNow();
+    }
+
+    /**
+     * Submits a study for processing. The study must be in a state in which it can be processed
+     * automatically, i.e., it must be sending or receiving.
+     *
+     * @param study
+     * @param listener
+     * @throws IllegalStateException if the scheduler is stopped or too many studies are waiting
+     */
+    public void submit(Study study, StudyProcessListener listener) throws IllegalStateException {
+
+        Map<StudyProcess, Exception> failures = new LinkedHashMap<>();
+        synchronized (this) {
+
+            // Check
+            if (stopped) {
+                throw new IllegalStateException("Scheduler has been stopped");
+            }
+            if (study.getConnectionSettings() == null) {
+                throw new IllegalArgumentException("Study must use an automated exchange mode");
+            }
+
+            // Admit or queue
+            StudyProcess process = new StudyProcess(study, listener);
+            if (active.size() < maxActiveStudies) {
+                admit(process, failures);
+            } else if (waiting.size() < maxWaitingStudies) {
+                waiting.add(process);
+                LOGGER.info(String.format("Study %s is waiting for admission", study.getName()));
+            } else {
+                throw new IllegalStateException("Too many studies waiting for admission");
+            }
+        }
+
+        // Inform listeners without holding the lock
+        notifyFailed(failures);
+    }
+
+    /**
+     * Admits a study and queues its first step. Must be called while holding the lock.
+     *
+     * @param process
+     * @param failures - to add the study to if it can not be admitted
+     */
+    private void admit(StudyProcess process, Map<StudyProcess, Exception> failures) {
+
+        // Attach shared bus
+        try {
+            attachBus(process);
+        } catch (BusException e) {
+            failures.put(process, e);
+            return;
+        }
+
+        // Start
+        active.add(process);
+        LOGGER.info(String.format("Study %s admitted", process.getStudy().getName()));
+        workers.execute(() -> step(process));
+    }
+
+    /**
+     * Attaches a bus shared with other studies using the same connection
+     *
+     * @param process
+     * @throws BusException
+     */
+    private void attachBus(StudyProcess process) throws BusException {
+
+        // Prepare
+        Study study = process.getStudy();
+        ConnectionSettings settings = study.getConnectionSettings();
+        String ownName = study.getParticipantFromId(study.getOwnId()).name;
+        String key = BusPool.getKey(settings, ownName, false);
+
+        // Acquire
+        Bus bus = buses.acquire(key, () -> {
+            Bus created = Study.createBus(settings, ownName, settings.getCheckInterval(), false, transport);
+            if (created != null && stateDirectory != null) {
+                String name = key.replaceAll("[^A-Za-z0-9._-]", "_");
+                created.setSeenMessages(new SeenMessages(Resources.SEEN_MESSAGES_CAPACITY,
+                        new File(stateDirectory, name + SEEN_MESSAGES_FILE_SUFFIX)));
+                if (created instanceof BusEmail) {
+                    ((BusEmail) created).setStateFile(new File(stateDirectory, name + SYNC_STATE_FILE_SUFFIX));
+                }
+            }
+            return created;
+        });
+        if (bus == null) {
+            throw new BusException("Exchange mode is not automated");
+        }
+
+        // Store
+        study.setBus(bus);
+        attached.put(process, bus);
+    }
+
+    /**
+     * Releases the shared bus of a study and stops it if it is not used anymore
+     *
+     * @param process
+     */
+    private void detachBus(StudyProcess process) {
+        buses.release(attached.remove(process));
+    }
+
+    /**
+     * Removes a study from processing and admits the next waiting study
+     *
+     * @param process
+     */
+    private void finish(StudyProcess process) {
+
+        Map<StudyProcess, Exception> failures = new LinkedHashMap<>();
+        synchronized (this) {
+
+            // Remove
+            if (!active.remove(process)) {
+                return;
+            }
+            detachBus(process);
+
+            // Admit next
+            while (!stopped && active.size() < maxActiveStudies && !waiting.isEmpty()) {
+                admit(waiting.poll(), failures);
+            }
+        }
+
+        // Inform listeners without holding the lock
+        notifyFailed(failures);
+    }
+
+    /**
+     * Informs the listeners about failures. Must be called without holding the lock.
+     *
+     * @param failures
+     */
+    private void notifyFailed(Map<StudyProcess, Exception> failures) {
+        for (Entry<StudyProcess, Exception> failure : failures.entrySet()) {
+            notifyFailed(failure.getKey(), failure.getValue());
+        }
+    }
+
+    /**
+     * Informs the listener about a failure. Must be called without holding the lock.
+     *
+     * @param process
+     * @param exception
+     */
+    private void notifyFailed(StudyProcess process, Exception exception) {
+        LOGGER.error(String.format("Unable to process study %s", process.getStudy().getName()), exception);
+        if (process.getListener() != null) {
+            process.getListener().failed(process.getStudy(), exception);
+        }
+    }
+
+    /**
+     * Performs one step of a study and re-queues it if necessary
+     *
+     * @param process
+     */
+    private void step(StudyProcess process) {
+
+        // Check
+        synchronized (this) {
+            if (stopped || !active.contains(process)) {
+                return;
+            }
+        }
+
+        // Perform step
+        boolean finished;
+        try {
+            finished = process.step();
+        } catch (Exception e) {
+            process.cancel();
+            finish(process);
+            notifyFailed(process, e);
+            return;
+        }
+
+        // Finish or re-queue behind all other studies
+        if (finished) {
+            finish(process);
+            if (process.getListener() != null) {
+                process.getListener().finished(process.getStudy());
+            }
+        } else {
+            synchronized (this) {
+                if (!stopped) {
+                    timer.schedule(() -> workers.execute(() -> step(process)), stepInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+}
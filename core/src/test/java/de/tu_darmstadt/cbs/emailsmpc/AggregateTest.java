@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tu_darmstadt.cbs.emailsmpc;
+
+import de.tu_darmstadt.cbs.emailsmpc.Aggregate.Type;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests deriving bin values from observations and statistics from bin results
+ *
+ * @author Felix Wirth
+ */
+public class AggregateTest {
+
+    /**
+     * Observations of variable x
+     */
+    private static final List<BigDecimal> OBSERVATIONS = Arrays.asList(new BigDecimal("1"),
+                                                                       new BigDecimal("2"),
+                                                                       new BigDecimal("3"),
+                                                                       new BigDecimal("4"));
+
+    /**
+     * Sum, count and sum of squares are derived from observations
+     */
+    @Test
+    public void testDeriveValues() {
+
+        // Prepare
+        Bin[] bins = Aggregate.createBins("x", Type.SUM, Type.COUNT, Type.SUM_OF_SQUARES);
+        Map<String, List<BigDecimal>> observations = new HashMap<>();
+        observations.put("x", OBSERVATIONS);
+
+        // Derive
+        BigDecimal[] values = Aggregate.deriveValues(bins, observations);
+
+        // Check
+        assertEquals("x[sum]", bins[0].name);
+        assertEquals(0, new BigDecimal("10").compareTo(values[0]));
+        assertEquals(0, new BigDecimal("4").compareTo(values[1]));
+        assertEquals(0, new BigDecimal("30").compareTo(values[2]));
+    }
+
+    /**
+     * Histogram buckets count observations from their lower bound up to their upper bound
+     */
+    @Test
+    public void testHistogram() {
+
+        // Prepare
+        Bin[] bins = Aggregate.createHistogramBins("x", new BigDecimal("2"), new BigDecimal("4"));
+        Map<String, List<BigDecimal>> observations = new HashMap<>();
+        observations.put("x", OBSERVATIONS);
+
+        // Derive
+        BigDecimal[] values = Aggregate.deriveValues(bins, observations);
+
+        // Check
+        assertEquals("x[-inf;2)", bins[0].name);
+        assertEquals("x[2;4)", bins[1].name);
+        assertEquals("x[4;inf)", bins[2].name);
+        assertEquals(0, BigDecimal.ONE.compareTo(values[0]));
+        assertEquals(0, new BigDecimal("2").compareTo(values[1]));
+        assertEquals(0, BigDecimal.ONE.compareTo(values[2]));
+    }
+
+    /**
+     * Plain bins receive the sum of the observations registered under their name
+     */
+    @Test
+    public void testPlainBins() {
+
+        // Prepare
+        Bin[] bins = new Bin[] { new Bin("x"), new Bin("y") };
+        Map<String, List<BigDecimal>> observations = new HashMap<>();
+        observations.put("x", OBSERVATIONS);
+
+        // Derive
+        BigDecimal[] values = Aggregate.deriveValues(bins, observations);
+
+        // Check
+        assertEquals(0, new BigDecimal("10").compareTo(values[0]));
+        assertEquals(0, BigDecimal.ZERO.compareTo(values[1]));
+    }
+
+    /**
+     * Mean and sample variance are derived from the results of sum, count and sum of squares
+     */
+    @Test
+    public void testDeriveResults() {
+
+        // Prepare
+        Bin[] bins = Aggregate.createBins("x", Type.SUM, Type.COUNT, Type.SUM_OF_SQUARES);
+        BinResult[] results = new BinResult[] { new BinResult(bins[0].name, new BigDecimal("10")),
+                                                new BinResult(bins[1].name, new BigDecimal("4")),
+                                                new BinResult(bins[2].name, new BigDecimal("30")) };
+
+        // Derive
+        List<BinResult> derived = Aggregate.deriveResults(bins, results);
+
+        // Check
+        assertEquals(2, derived.size());
+        assertEquals("x[mean]", derived.get(0).name);
+        assertEquals(0, new BigDecimal("2.5").compareTo(derived.get(0).value));
+        assertEquals("x[variance]", derived.get(1).name);
+        assertEquals(0, new BigDecimal("5").divide(new BigDecimal("3"), MathContext.DECIMAL64).compareTo(derived.get(1).value));
+    }
+
+    /**
+     * Nothing is derived without a count
+     */
+    @Test
+    public void testDeriveResultsIncomplete() {
+        Bin[] bins = Aggregate.createBins("x", Type.SUM);
+        BinResult[] results = new BinResult[] { new BinResult(bins[0].name, new BigDecimal("10")) };
+        assertEquals(0, Aggregate.deriveResults(bins, results).size());
+    }
+}
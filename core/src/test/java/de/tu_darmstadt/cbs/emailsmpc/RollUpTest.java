@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tu_darmstadt.cbs.emailsmpc;
+
+import de.tu_darmstadt.cbs.emailsmpc.Aggregate.Type;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests computing roll-up totals of hierarchical dimensions
+ *
+ * @author Felix Wirth
+ */
+public class RollUpTest {
+
+    /**
+     * Leaves have one non-empty coordinate per dimension which is not rolled up
+     */
+    @Test
+    public void testIsLeaf() {
+        assertTrue(RollUp.isLeaf("aXb", 2));
+        assertFalse(RollUp.isLeaf("aX*", 2));
+        assertFalse(RollUp.isLeaf("aX", 2));
+        assertFalse(RollUp.isLeaf("a", 2));
+        assertFalse(RollUp.isLeaf("aXbXc", 2));
+    }
+
+    /**
+     * Totals are computed level by level from leaves only
+     */
+    @Test
+    public void testDeriveResults() {
+
+        // Prepare
+        Bin[] bins = new Bin[] { new Bin("aXc"),
+                                 new Bin("aXd"),
+                                 new Bin("bXc"),
+                                 new Bin("aX*"),
+                                 Aggregate.createBins("x", Type.SUM)[0] };
+        BinResult[] results = new BinResult[] { new BinResult("aXc", new BigDecimal("1")),
+                                                new BinResult("aXd", new BigDecimal("2")),
+                                                new BinResult("bXc", new BigDecimal("4")),
+                                                new BinResult("aX*", new BigDecimal("100")),
+                                                new BinResult("x[sum]", new BigDecimal("1000")) };
+
+        // Derive
+        List<BinResult> derived = RollUp.deriveResults(bins, results, 2);
+
+        // Check
+        assertEquals(3, derived.size());
+        assertEquals(new BinResult("aX*", new BigDecimal("3")), derived.get(0));
+        assertEquals(new BinResult("bX*", new BigDecimal("4")), derived.get(1));
+        assertEquals(new BinResult("*X*", new BigDecimal("7")), derived.get(2));
+    }
+
+    /**
+     * Nothing is derived without dimensions
+     */
+    @Test
+    public void testNoDimensions() {
+        Bin[] bins = new Bin[] { new Bin("a") };
+        BinResult[] results = new BinResult[] { new BinResult("a", BigDecimal.ONE) };
+        assertEquals(0, RollUp.deriveResults(bins, results, 0).size());
+    }
+}
@@ -0,0 +1,332 @@
+package org.bihealth.mi.easybus;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests splitting messages into fragments, merging them and the fragment cache
+ *
+ * @author Felix Wirth
+ */
+public class MessageManagerTest {
+
+    /**
+     * Receiver
+     */
+    private final Participant receiver;
+    /**
+     * Scope
+     */
+    private final Scope scope = new Scope("scope");
+
+    /**
+     * Creates a new instance
+     *
+     * @throws BusException
+     */
+    public MessageManagerTest() throws BusException {
+        this.receiver = new Participant("Receiver", "receiver@example.org");
+    }
+
+    /**
+     * Binary payloads survive splitting and merging in any order
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+
+        // Prepare
+        byte[] payload = new byte[1000];
+        new Random(0).nextBytes(payload);
+        MessageManager manager = new MessageManager(100);
+
+        // Split
+        BusMessage[] fragments = manager.splitMessage(new BusMessage(receiver, scope, payload));
+        assertTrue(fragments.length > 1);
+
+        // Merge
+        BusMessage message = merge(manager, shuffle(fragments));
+        assertArrayEquals(payload, message.getPayload());
+        assertEquals(0, manager.getPendingMessages());
+        assertEquals(0, manager.getBufferedBytes());
+    }
+
+    /**
+     * Text messages survive splitting and merging, including compressed ones
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTextRoundTrip() throws Exception {
+
+        // Prepare
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append("Message text ").append(i % 10).append(' ');
+        }
+        String text = builder.toString();
+        MessageManager manager = new MessageManager(100);
+
+        // Split
+        BusMessage[] fragments = manager.splitMessage(new BusMessage(receiver, scope, text));
+        assertTrue(fragments.length < text.getBytes(StandardCharsets.UTF_8).length / 100);
+
+        // Merge
+        BusMessage message = merge(manager, shuffle(fragments));
+        assertEquals(text, message.getMessage());
+    }
+
+    /**
+     * Corrupted fragments are rejected without being buffered
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCorruptedFragment() throws Exception {
+
+        // Prepare
+        byte[] payload = new byte[500];
+        new Random(1).nextBytes(payload);
+        byte[] content = PayloadCompression.compress(payload);
+        MessageManager manager = new MessageManager(1000);
+        BusMessageFragment fragment = new BusMessageFragment(receiver, scope, content, "id", 0, 1, content.length, true);
+
+        // Corrupt
+        content[1] ^= 1;
+        assertFalse(fragment.isValid());
+        try {
+            manager.mergeMessage(fragment, false);
+            fail("Corrupted fragment accepted");
+        } catch (BusException e) {
+            // Expected
+        }
+        assertEquals(0, manager.getPendingMessages());
+
+        // Repair and merge
+        content[1] ^= 1;
+        assertArrayEquals(payload, merge(manager, new BusMessage[] { fragment }).getPayload());
+    }
+
+    /**
+     * Fragments share the array of their message and only their slice is serialized
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSerializedSlice() throws Exception {
+
+        // Prepare
+        byte[] payload = new byte[250];
+        new Random(6).nextBytes(payload);
+        MessageManager manager = new MessageManager(100);
+        BusMessage[] fragments = manager.splitMessage(new BusMessage(receiver, scope, payload));
+
+        // Serialize and deserialize
+        BusMessage[] copies = new BusMessage[fragments.length];
+        for (int i = 0; i < fragments.length; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(fragments[i]);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                copies[i] = (BusMessage) in.readObject();
+            }
+            BusMessageFragment copy = (BusMessageFragment) copies[i];
+            assertEquals(fragments[i], copy);
+            assertTrue(copy.isValid());
+            assertEquals(((BusMessageFragment) fragments[i]).getPayloadLength(), copy.getPayload().length);
+        }
+
+        // Merge
+        assertArrayEquals(payload, merge(manager, copies).getPayload());
+    }
+
+    /**
+     * Fragments not matching the number of fragments of their message are rejected
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOutOfRangeFragment() throws Exception {
+
+        // Prepare
+        byte[] payload = new byte[300];
+        new Random(2).nextBytes(payload);
+        MessageManager manager = new MessageManager(100);
+        BusMessage[] fragments = manager.splitMessage(new BusMessage(receiver, scope, payload));
+        BusMessageFragment first = (BusMessageFragment) fragments[0];
+
+        // Merge fragment beyond the announced number of fragments
+        assertNull(manager.mergeMessage(first, false));
+        BusMessageFragment outOfRange = new BusMessageFragment(receiver,
+                                                               scope,
+                                                               new byte[10],
+                                                               first.getMessageID(),
+                                                               fragments.length,
+                                                               fragments.length + 1,
+                                                               first.getMessageLength(),
+                                                               true);
+        try {
+            manager.mergeMessage(outOfRange, false);
+            fail("Fragment out of range accepted");
+        } catch (BusException e) {
+            // Expected
+        }
+
+        // Complete
+        assertArrayEquals(payload, merge(manager, Arrays.copyOfRange(fragments, 1, fragments.length)).getPayload());
+    }
+
+    /**
+     * Fragments numbered beyond their number of fragments cannot be created
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFragmentNumber() {
+        new BusMessageFragment(receiver, scope, new byte[10], "id", 2, 2, 10, true);
+    }
+
+    /**
+     * The least recently updated incomplete messages are evicted when the memory budget is exceeded
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testEviction() throws Exception {
+
+        // Prepare
+        MessageManager manager = new MessageManager(10, 25, 60000);
+        byte[] payloadA = new byte[29];
+        byte[] payloadB = new byte[29];
+        new Random(3).nextBytes(payloadA);
+        new Random(4).nextBytes(payloadB);
+        BusMessage[] fragmentsA = manager.splitMessage(new BusMessage(receiver, scope, payloadA));
+        BusMessage[] fragmentsB = manager.splitMessage(new BusMessage(receiver, scope, payloadB));
+        String idA = ((BusMessageFragment) fragmentsA[0]).getMessageID();
+        String idB = ((BusMessageFragment) fragmentsB[0]).getMessageID();
+
+        // Buffer message A within the budget
+        assertNull(manager.mergeMessage(fragmentsA[0], false));
+        assertNull(manager.mergeMessage(fragmentsA[1], false));
+        assertEquals(20, manager.getBufferedBytes());
+
+        // Exceed the budget with message B
+        assertNull(manager.mergeMessage(fragmentsB[0], false));
+        assertFalse(manager.isPending(idA));
+        assertTrue(manager.isPending(idB));
+        assertEquals(1, manager.getEvictedMessages());
+        assertEquals(2, manager.getDroppedFragments());
+        assertEquals(10, manager.getBufferedBytes());
+
+        // Complete message B
+        assertArrayEquals(payloadB, merge(manager, Arrays.copyOfRange(fragmentsB, 1, fragmentsB.length)).getPayload());
+        assertEquals(0, manager.getBufferedBytes());
+    }
+
+    /**
+     * Fragments of evicted messages are deleted from their source and reported
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testEvictionDeletesFragments() throws Exception {
+
+        // Prepare
+        MessageManager manager = new MessageManager(10, 25, 60000);
+        List<Integer> dropped = new ArrayList<>();
+        manager.setPerformanceListener(new PerformanceListener() {
+            @Override
+            public void messageReceived(long size) {
+                // Empty by design
+            }
+
+            @Override
+            public void messageSent(long size) {
+                // Empty by design
+            }
+
+            @Override
+            public void incompleteMessageDropped(int fragments, boolean expired) {
+                assertFalse(expired);
+                dropped.add(fragments);
+            }
+        });
+        byte[] payloadA = new byte[29];
+        byte[] payloadB = new byte[29];
+        new Random(3).nextBytes(payloadA);
+        new Random(4).nextBytes(payloadB);
+        BusMessage[] fragmentsA = manager.splitMessage(new BusMessage(receiver, scope, payloadA));
+        BusMessage[] fragmentsB = manager.splitMessage(new BusMessage(receiver, scope, payloadB));
+        AtomicInteger deleted = new AtomicInteger();
+
+        // Buffer message A and exceed the budget with message B
+        for (int i = 0; i < 2; i++) {
+            assertNull(manager.mergeMessage(new BusMessageFragment((BusMessageFragment) fragmentsA[i]) {
+
+                /** SVUID */
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public void delete() throws BusException {
+                    deleted.incrementAndGet();
+                }
+            }, true));
+        }
+        assertNull(manager.mergeMessage(fragmentsB[0], true));
+
+        // Check
+        assertEquals(2, deleted.get());
+        assertEquals(Collections.singletonList(2), dropped);
+    }
+
+    /**
+     * Merges fragments and checks that the message is complete with the last one
+     *
+     * @param manager
+     * @param fragments
+     * @return the message
+     * @throws BusException
+     */
+    private BusMessage merge(MessageManager manager, BusMessage[] fragments) throws BusException {
+        BusMessage result = null;
+        for (int i = 0; i < fragments.length; i++) {
+            result = manager.mergeMessage(fragments[i], false);
+            if (i < fragments.length - 1) {
+                assertNull(result);
+            }
+        }
+        assertNotNull(result);
+        return result;
+    }
+
+    /**
+     * Shuffles fragments deterministically
+     *
+     * @param fragments
+     * @return
+     */
+    private BusMessage[] shuffle(BusMessage[] fragments) {
+        List<BusMessage> result = new ArrayList<>(Arrays.asList(fragments));
+        Collections.shuffle(result, new Random(5));
+        return result.toArray(new BusMessage[0]);
+    }
+}
@@ -0,0 +1,119 @@
+package org.bihealth.mi.easybus;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the compression stage of the bus
+ *
+ * @author Fabian Prasser
+ */
+public class PayloadCompressionTest {
+
+    /**
+     * Redundant payloads are deflated
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testCompressible() throws IOException {
+        byte[] data = new byte[10000];
+        Arrays.fill(data, (byte) 'a');
+        byte[] compressed = PayloadCompression.compress(data);
+        assertTrue(compressed.length < data.length / 10);
+        assertArrayEquals(data, toArray(PayloadCompression.decompress(compressed)));
+    }
+
+    /**
+     * Random payloads are stored as is behind the header
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testIncompressible() throws IOException {
+        byte[] data = new byte[10000];
+        new Random(0).nextBytes(data);
+        byte[] compressed = PayloadCompression.compress(data);
+        assertEquals(data.length + 1, compressed.length);
+        assertArrayEquals(data, toArray(PayloadCompression.decompress(compressed)));
+    }
+
+    /**
+     * Small and empty payloads are stored as is behind the header
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testSmall() throws IOException {
+        for (byte[] data : new byte[][] { new byte[0], new byte[] { 1, 2, 3 }, new byte[100] }) {
+            byte[] compressed = PayloadCompression.compress(data);
+            assertEquals(data.length + 1, compressed.length);
+            assertArrayEquals(data, toArray(PayloadCompression.decompress(compressed)));
+        }
+    }
+
+    /**
+     * Payloads without a valid header are rejected
+     */
+    @Test
+    public void testInvalidHeader() {
+        assertRejected(new byte[0]);
+        assertRejected(new byte[] { 7, 1, 2 });
+    }
+
+    /**
+     * Truncated compressed payloads are rejected
+     */
+    @Test
+    public void testTruncated() {
+        byte[] data = new byte[10000];
+        Arrays.fill(data, (byte) 'a');
+        byte[] compressed = PayloadCompression.compress(data);
+        assertRejected(Arrays.copyOf(compressed, compressed.length / 2));
+    }
+
+    /**
+     * GZIP streams of previous versions are recognized
+     */
+    @Test
+    public void testGZIP() {
+        assertTrue(PayloadCompression.isGZIP(new byte[] { 0x1f, (byte) 0x8b, 0 }));
+        assertFalse(PayloadCompression.isGZIP(PayloadCompression.compress(new byte[100])));
+    }
+
+    /**
+     * Checks that decompressing the data fails
+     *
+     * @param data
+     */
+    private void assertRejected(byte[] data) {
+        try {
+            PayloadCompression.decompress(data);
+            fail("Invalid payload accepted");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Returns the remaining content of a buffer
+     *
+     * @param buffer
+     * @return
+     */
+    private byte[] toArray(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+}
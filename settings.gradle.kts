@@ -22,3 +22,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "EasySMPC-porting"
 include(":app")
+include(":core")